@@ -0,0 +1,48 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pyerter.squirrel.tpp.core.TeamSorterAuctionSolver;
+import pyerter.squirrel.tpp.core.TeamSorterResult;
+import pyerter.squirrel.tpp.core.TeamSorterSolver;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+
+import java.util.concurrent.TimeUnit;
+
+// Full friendship-free solves, model building included, with the pure-Java auction and with
+// GLOP. Both results carry the dense member x column solution, which dominates memory at the
+// largest size, so run that one with a large heap.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class AuctionBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int members;
+
+    protected TeamSortingInput input;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        input = BenchmarkInputs.generate(members, 0);
+    }
+
+    @Benchmark
+    public double auction() {
+        TeamSorterAuctionSolver solver = new TeamSorterAuctionSolver(input);
+        return solver.solve(BenchmarkSolver.QUIET_LOGGER).getSolverObjectiveValue();
+    }
+
+    // TeamSorterSolver.solve() loads the natives itself
+    @Benchmark
+    public double glop() {
+        TeamSorterSolver solver = new TeamSorterSolver(input, false);
+        solver.setIgnoreFriendships(true);
+        solver.setNameConstraints(false);
+        TeamSorterResult result = solver.solve(BenchmarkSolver.QUIET_LOGGER);
+        return result.getSolverObjectiveValue();
+    }
+
+}
@@ -0,0 +1,93 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import com.opencsv.CSVWriter;
+import pyerter.squirrel.tpp.core.Member;
+import pyerter.squirrel.tpp.core.TeamSortingGeneratorInput;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+import pyerter.squirrel.tpp.friendship.Friendship;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Generated problem inputs shared by the benchmarks. Inputs are seeded so every run benchmarks
+// the same instances, and team count grows with the member count so teams stay around 50
+// members at every scale.
+public class BenchmarkInputs {
+
+    public static final long SEED = 20240501L;
+    public static final int MEMBERS_PER_TEAM = 50;
+    public static final int MEMBERS_PER_FRIENDSHIP = 10;
+
+    public static TeamSortingInput generate(int memberCount, int numbFriendships) {
+        int teamCount = Math.max(5, memberCount / MEMBERS_PER_TEAM);
+        TeamSortingGeneratorInput.Settings settings = new TeamSortingGeneratorInput.Settings();
+        settings.setStreaming(true);
+        TeamSortingInput input = TeamSortingGeneratorInput.generateInput(SEED + memberCount, settings, memberCount, teamCount, 3, 3,
+                1, 3, 8, 12, 1, 2,
+                numbFriendships, 2, 4);
+        if (input == null) {
+            throw new IllegalStateException(String.format("Could not generate input with %d members", memberCount));
+        }
+        return input;
+    }
+
+    public static TeamSortingInput generateWithFriendships(int memberCount) {
+        return generate(memberCount, memberCount / MEMBERS_PER_FRIENDSHIP);
+    }
+
+    // Writes the input in the layout of app/example_format.csv so it can be read back by CsvReader
+    public static void writeInputCsv(TeamSortingInput input, String filePath) throws IOException {
+        int roleCount = input.numbRoles();
+        int prefCount = input.getNumbPreferences();
+        List<String[]> data = new ArrayList<>();
+        data.add(new String[]{"Teams", "Roles", "Preferences", "Members", "Friendships"});
+        data.add(new String[]{"" + input.numbTeams(), "" + roleCount, "" + prefCount,
+                "" + input.numbMembers(), "" + input.numbFriendships()});
+        data.add(new String[0]);
+        String[] nextLine = new String[roleCount + 3];
+        nextLine[0] = "Roles";
+        System.arraycopy(input.getRoles(), 0, nextLine, 1, roleCount);
+        nextLine[roleCount + 1] = "Min Members";
+        nextLine[roleCount + 2] = "Max";
+        data.add(nextLine);
+        for (int t = 0; t < input.numbTeams(); t++) {
+            nextLine = new String[roleCount + 3];
+            nextLine[0] = input.getTeams()[t];
+            for (int r = 0; r < roleCount; r++) {
+                nextLine[r + 1] = "" + input.getTeamRoleRequiremenet(t, r);
+            }
+            nextLine[roleCount + 1] = "" + input.getTeamMinimumMembers(t);
+            nextLine[roleCount + 2] = "" + input.getTeamMinimumMembers(t);
+            data.add(nextLine);
+        }
+        data.add(new String[0]);
+        data.add(new String[0]);
+        for (int m = 0; m < input.numbMembers(); m++) {
+            Member member = input.getMember(m);
+            nextLine = new String[1 + prefCount + roleCount];
+            Arrays.fill(nextLine, "");
+            nextLine[0] = member.getName();
+            System.arraycopy(member.getPreferredTeams(), 0, nextLine, 1, prefCount);
+            for (int r : input.getMemberRoles(m)) {
+                nextLine[1 + prefCount + r] = "Y";
+            }
+            data.add(nextLine);
+        }
+        data.add(new String[0]);
+        data.add(new String[]{"Friendships"});
+        for (Friendship friendship : input.getFriendships()) {
+            String[] friends = friendship.getFriends();
+            nextLine = new String[friends.length + 1];
+            nextLine[0] = friendship.getFriendshipName();
+            System.arraycopy(friends, 0, nextLine, 1, friends.length);
+            data.add(nextLine);
+        }
+        try (CSVWriter writer = new CSVWriter(new FileWriter(filePath))) {
+            writer.writeAll(data);
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import com.google.ortools.linearsolver.MPConstraint;
+import com.google.ortools.linearsolver.MPObjective;
+import com.google.ortools.linearsolver.MPSolver;
+import com.google.ortools.linearsolver.MPVariable;
+import pyerter.squirrel.tpp.TeamSortingLogger;
+import pyerter.squirrel.tpp.core.TeamRoleSlots;
+import pyerter.squirrel.tpp.core.TeamSorterSolver;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+
+// Exposes the individual model building stages of TeamSorterSolver to the benchmarks.
+public class BenchmarkSolver extends TeamSorterSolver {
+
+    public static final TeamSortingLogger QUIET_LOGGER = new TeamSortingLogger(0);
+
+    public BenchmarkSolver(TeamSortingInput input) {
+        super(input, false);
+    }
+
+    public MPVariable[][] variables(MPSolver solver) {
+        return createVariables(solver);
+    }
+
+    public MPConstraint[] constraint1(MPSolver solver, MPVariable[][] vars) {
+        return createConstraint1TeamRoleColumnSums(solver, vars);
+    }
+
+    public MPConstraint[] constraint2(MPSolver solver, MPVariable[][] vars) {
+        return createConstraint2MemberRowSums(solver, vars);
+    }
+
+    public MPConstraint[] constraint3(MPSolver solver, MPVariable[][] vars) {
+        return createConstraint3MemberRoleCapabilities(solver, vars);
+    }
+
+    public MPConstraint[] constraint4(MPSolver solver, MPVariable[][] vars) {
+        return createConstraint4TeamSizeRequirements(solver, vars);
+    }
+
+    public MPConstraint[][] constraint5(MPSolver solver, MPVariable[][] vars) {
+        return createConstraint5FriendshipRequirements(solver, vars);
+    }
+
+    public int[] preferenceMultipliers() {
+        return createPreferenceMultipliers();
+    }
+
+    public MPObjective objective(MPSolver solver, MPVariable[][] vars, int[] preferenceMultipliers) {
+        MPObjective objective = createObjectiveFunction(QUIET_LOGGER, solver, vars, preferenceMultipliers);
+        objective.setMaximization();
+        return objective;
+    }
+
+    // Builds the full model without friendship constraints, as Main does
+    public MPVariable[][] buildModel(MPSolver solver, int[] preferenceMultipliers) {
+        MPVariable[][] vars = variables(solver);
+        constraint1(solver, vars);
+        constraint2(solver, vars);
+        if (!pruneVariables) constraint3(solver, vars);
+        constraint4(solver, vars);
+        objective(solver, vars, preferenceMultipliers);
+        return vars;
+    }
+
+    // Builds the aggregated model (one variable per member and slot type) without friendship constraints
+    public MPVariable[][] buildAggregatedModel(MPSolver solver, int[] preferenceMultipliers) {
+        TeamRoleSlots slots = new TeamRoleSlots(input);
+        MPVariable[][] vars = pruneVariables
+                ? createPrunedVariables(solver, slots.numbSlots(), slots::getRepresentativeColumn)
+                : createVariables(solver, slots.numbSlots());
+        createAggregatedConstraint1SlotCapacities(solver, vars, slots);
+        createAggregatedConstraint2MemberRowSums(solver, vars, slots);
+        if (!pruneVariables) createAggregatedConstraint3MemberRoleCapabilities(solver, vars, slots);
+        createAggregatedConstraint4TeamSizeRequirements(solver, vars, slots);
+        createAggregatedObjectiveFunction(QUIET_LOGGER, solver, vars, slots, preferenceMultipliers).setMaximization();
+        return vars;
+    }
+
+}
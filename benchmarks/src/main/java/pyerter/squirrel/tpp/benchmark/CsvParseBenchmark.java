@@ -0,0 +1,41 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+import pyerter.squirrel.tpp.io.CsvReader;
+import pyerter.squirrel.tpp.io.TeamSorterInputReadingException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvParseBenchmark {
+
+    @Param({"100", "500", "2000"})
+    public int members;
+
+    protected File inputFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        inputFile = File.createTempFile("teamsorting_input", ".csv");
+        BenchmarkInputs.writeInputCsv(BenchmarkInputs.generateWithFriendships(members), inputFile.getAbsolutePath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        inputFile.delete();
+    }
+
+    @Benchmark
+    public TeamSortingInput readProblemInputCsv() throws TeamSorterInputReadingException {
+        return CsvReader.readProblemInputCsv(inputFile.getAbsolutePath());
+    }
+
+}
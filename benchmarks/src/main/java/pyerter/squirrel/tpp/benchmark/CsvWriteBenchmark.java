@@ -0,0 +1,50 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pyerter.squirrel.tpp.core.TeamSorterResult;
+import pyerter.squirrel.tpp.io.CsvResultWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// Writes a result to a temporary directory, removing the file after every invocation so
+// the numbered file name scan stays the same size.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvWriteBenchmark {
+
+    protected File outputDirectory;
+    protected TeamSorterResult result;
+    protected String writtenFile;
+
+    @Setup(Level.Trial)
+    public void setup(SolvedModelState state) throws IOException {
+        outputDirectory = Files.createTempDirectory("teamsorting_output").toFile();
+        CsvResultWriter.targetResultDirectoryName = outputDirectory.getAbsolutePath();
+        CsvResultWriter.subdirectoryName = "";
+        result = state.createResult();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() {
+        if (writtenFile != null) new File(writtenFile).delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        outputDirectory.delete();
+    }
+
+    @Benchmark
+    public String writeResultToFile() {
+        writtenFile = CsvResultWriter.writeResultToFile(result, "result");
+        return writtenFile;
+    }
+
+}
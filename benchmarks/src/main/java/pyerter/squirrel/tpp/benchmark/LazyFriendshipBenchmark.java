@@ -0,0 +1,43 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import com.google.ortools.Loader;
+import org.openjdk.jmh.annotations.*;
+import pyerter.squirrel.tpp.core.TeamSorterSolver;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+
+import java.util.concurrent.TimeUnit;
+
+// Full solves with friendship constraints, either all added up front or only for the
+// friendships the previous solve split.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LazyFriendshipBenchmark {
+
+    @Param({"500", "2000"})
+    public int members;
+
+    @Param({"true", "false"})
+    public boolean lazy;
+
+    protected TeamSortingInput input;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        Loader.loadNativeLibraries();
+        input = BenchmarkInputs.generateWithFriendships(members);
+    }
+
+    @Benchmark
+    public double solve() {
+        TeamSorterSolver solver = new TeamSorterSolver(input, false);
+        solver.setIgnoreFriendships(false);
+        solver.setNameConstraints(false);
+        solver.setLazyFriendships(lazy);
+        return solver.solve(BenchmarkSolver.QUIET_LOGGER).getSolverObjectiveValue();
+    }
+
+}
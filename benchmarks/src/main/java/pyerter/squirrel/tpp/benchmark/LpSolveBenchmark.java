@@ -0,0 +1,61 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import com.google.ortools.Loader;
+import com.google.ortools.linearsolver.MPSolver;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Solves a freshly built model (no friendship constraints) on every invocation, so GLOP
+// never starts from a previous basis.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LpSolveBenchmark {
+
+    @Param({"100", "500", "2000"})
+    public int members;
+
+    // "columns" is one variable per member and column, "slots" the aggregated formulation
+    @Param({"columns", "slots"})
+    public String formulation;
+
+    // whether variables a member can never take are left out of the model
+    @Param({"true", "false"})
+    public boolean prune;
+
+    protected BenchmarkSolver sorter;
+    protected int[] preferenceMultipliers;
+    protected MPSolver solver;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        Loader.loadNativeLibraries();
+        sorter = new BenchmarkSolver(BenchmarkInputs.generateWithFriendships(members));
+        sorter.setPruneVariables(prune);
+        preferenceMultipliers = sorter.preferenceMultipliers();
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        solver = MPSolver.createSolver("GLOP");
+        if (formulation.equals("slots"))
+            sorter.buildAggregatedModel(solver, preferenceMultipliers);
+        else
+            sorter.buildModel(solver, preferenceMultipliers);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() {
+        solver.delete();
+    }
+
+    @Benchmark
+    public MPSolver.ResultStatus solve() {
+        return solver.solve();
+    }
+
+}
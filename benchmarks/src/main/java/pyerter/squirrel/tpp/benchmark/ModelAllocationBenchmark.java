@@ -0,0 +1,84 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import com.google.ortools.Loader;
+import com.google.ortools.linearsolver.MPSolver;
+import com.google.ortools.linearsolver.MPVariable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+
+import java.util.concurrent.TimeUnit;
+
+// Java-side allocation of the model builders, meant to be run with -prof gc. Constraints keep
+// piling up on one solver per iteration, so gc.alloc.rate.norm only counts what the builders
+// allocate and not the solver or variables. Divide it by the nonzeros printed at setup to get
+// bytes per nonzero.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ModelAllocationBenchmark {
+
+    @Param({"500", "2000"})
+    public int members;
+
+    @Param({"true", "false"})
+    public boolean names;
+
+    protected BenchmarkSolver sorter;
+    protected int[] preferenceMultipliers;
+    protected MPSolver solver;
+    protected MPVariable[][] vars;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        Loader.loadNativeLibraries();
+        TeamSortingInput input = BenchmarkInputs.generateWithFriendships(members);
+        sorter = new BenchmarkSolver(input);
+        sorter.setIgnoreFriendships(false);
+        sorter.setNameConstraints(names);
+        preferenceMultipliers = sorter.preferenceMultipliers();
+
+        MPSolver counting = MPSolver.createSolver("GLOP");
+        MPVariable[][] countingVars = sorter.variables(counting);
+        buildConstraints(countingVars, counting);
+        long nonzeros = counting.exportModelToProto().getConstraintList().stream()
+                .mapToLong(c -> c.getVarIndexCount())
+                .sum();
+        System.out.printf("%n%d members: %d constraints, %d nonzeros%n", members, counting.numConstraints(), nonzeros);
+        counting.delete();
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        solver = MPSolver.createSolver("GLOP");
+        vars = sorter.variables(solver);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        solver.delete();
+    }
+
+    protected void buildConstraints(MPVariable[][] vars, MPSolver solver) {
+        sorter.constraint1(solver, vars);
+        sorter.constraint2(solver, vars);
+        if (!sorter.isPruneVariables()) sorter.constraint3(solver, vars);
+        sorter.constraint4(solver, vars);
+        sorter.constraint5(solver, vars);
+    }
+
+    @Benchmark
+    public void buildConstraints(Blackhole blackhole) {
+        buildConstraints(vars, solver);
+        blackhole.consume(solver);
+    }
+
+    @Benchmark
+    public void buildObjective(Blackhole blackhole) {
+        blackhole.consume(sorter.objective(solver, vars, preferenceMultipliers));
+    }
+
+}
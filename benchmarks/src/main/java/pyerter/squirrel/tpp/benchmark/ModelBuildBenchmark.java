@@ -0,0 +1,93 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import com.google.ortools.Loader;
+import com.google.ortools.linearsolver.MPConstraint;
+import com.google.ortools.linearsolver.MPObjective;
+import com.google.ortools.linearsolver.MPSolver;
+import com.google.ortools.linearsolver.MPVariable;
+import org.openjdk.jmh.annotations.*;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+
+import java.util.concurrent.TimeUnit;
+
+// Each invocation gets a fresh solver with only the variables created, so every benchmark
+// measures a single constraint family (or the objective) on an otherwise empty model.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ModelBuildBenchmark {
+
+    @Param({"100", "500", "2000"})
+    public int members;
+
+    // whether variables a member can never take are left out of the model. solve() only builds
+    // constraint 3 when this is false, so that is the case its benchmark is meant for.
+    @Param({"true", "false"})
+    public boolean prune;
+
+    protected TeamSortingInput input;
+    protected BenchmarkSolver sorter;
+    protected int[] preferenceMultipliers;
+    protected MPSolver solver;
+    protected MPVariable[][] vars;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        Loader.loadNativeLibraries();
+        input = BenchmarkInputs.generateWithFriendships(members);
+        sorter = new BenchmarkSolver(input);
+        sorter.setIgnoreFriendships(false);
+        sorter.setPruneVariables(prune);
+        preferenceMultipliers = sorter.preferenceMultipliers();
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        solver = MPSolver.createSolver("GLOP");
+        vars = sorter.variables(solver);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() {
+        solver.delete();
+    }
+
+    @Benchmark
+    public MPVariable[][] createVariables() {
+        return sorter.variables(solver);
+    }
+
+    @Benchmark
+    public MPConstraint[] createConstraint1TeamRoleColumnSums() {
+        return sorter.constraint1(solver, vars);
+    }
+
+    @Benchmark
+    public MPConstraint[] createConstraint2MemberRowSums() {
+        return sorter.constraint2(solver, vars);
+    }
+
+    @Benchmark
+    public MPConstraint[] createConstraint3MemberRoleCapabilities() {
+        return sorter.constraint3(solver, vars);
+    }
+
+    @Benchmark
+    public MPConstraint[] createConstraint4TeamSizeRequirements() {
+        return sorter.constraint4(solver, vars);
+    }
+
+    @Benchmark
+    public MPConstraint[][] createConstraint5FriendshipRequirements() {
+        return sorter.constraint5(solver, vars);
+    }
+
+    @Benchmark
+    public MPObjective createObjectiveFunction() {
+        return sorter.objective(solver, vars, preferenceMultipliers);
+    }
+
+}
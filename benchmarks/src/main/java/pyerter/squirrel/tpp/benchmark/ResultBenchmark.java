@@ -0,0 +1,58 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pyerter.squirrel.tpp.core.MemberAssignment;
+import pyerter.squirrel.tpp.core.TeamSorterResult;
+import pyerter.squirrel.tpp.core.TeamSorterSolver;
+import pyerter.squirrel.tpp.friendship.TeamSorterFriendshipRoundingConstrained;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Stages that turn a solved model into assignments
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResultBenchmark {
+
+    @Benchmark
+    public TeamSorterResult createResult(SolvedModelState state) {
+        return state.createResult();
+    }
+
+    @Benchmark
+    public double createResultAndObjectiveValue(SolvedModelState state) {
+        return state.createResult().getObjectiveValue();
+    }
+
+    // One native call per variable
+    @Benchmark
+    public double[][] readSolutionPerVariable(SolvedModelState state) {
+        return TeamSorterSolver.getSolutionValues(state.vars);
+    }
+
+    // One native call for the whole solution, as the model proto build mode reads it
+    @Benchmark
+    public double[][] readSolutionResponse(SolvedModelState state) {
+        List<Double> values = state.solver.createSolutionResponseProto().getVariableValueList();
+        double[][] solution = new double[state.vars.length][];
+        int index = 0;
+        for (int m = 0; m < solution.length; m++) {
+            solution[m] = new double[state.vars[m].length];
+            for (int j = 0; j < solution[m].length; j++) {
+                if (state.vars[m][j] != null) solution[m][j] = values.get(index++);
+            }
+        }
+        return solution;
+    }
+
+    @Benchmark
+    public MemberAssignment[] roundFriendships(SolvedModelState state) {
+        TeamSorterFriendshipRoundingConstrained rounding = new TeamSorterFriendshipRoundingConstrained(state.solver,
+                state.objective, state.vars, state.input, state.status, state.preferenceMultipliers);
+        return rounding.calculateAssignments();
+    }
+
+}
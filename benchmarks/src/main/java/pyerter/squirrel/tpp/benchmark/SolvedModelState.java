@@ -0,0 +1,48 @@
+package pyerter.squirrel.tpp.benchmark;
+
+import com.google.ortools.Loader;
+import com.google.ortools.linearsolver.MPObjective;
+import com.google.ortools.linearsolver.MPSolver;
+import com.google.ortools.linearsolver.MPVariable;
+import org.openjdk.jmh.annotations.*;
+import pyerter.squirrel.tpp.core.TeamSorterResult;
+import pyerter.squirrel.tpp.core.TeamSorterStatus;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+
+// A model solved once per trial without friendship constraints, shared by the benchmarks
+// of the stages that run after the LP solve.
+@State(Scope.Benchmark)
+public class SolvedModelState {
+
+    @Param({"100", "500", "2000"})
+    public int members;
+
+    public TeamSortingInput input;
+    public int[] preferenceMultipliers;
+    public MPSolver solver;
+    public MPObjective objective;
+    public MPVariable[][] vars;
+    public TeamSorterStatus status;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Loader.loadNativeLibraries();
+        input = BenchmarkInputs.generateWithFriendships(members);
+        BenchmarkSolver sorter = new BenchmarkSolver(input);
+        preferenceMultipliers = sorter.preferenceMultipliers();
+        solver = MPSolver.createSolver("GLOP");
+        vars = sorter.buildModel(solver, preferenceMultipliers);
+        objective = solver.objective();
+        status = TeamSorterStatus.of(solver.solve());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        solver.delete();
+    }
+
+    public TeamSorterResult createResult() {
+        return new TeamSorterResult(solver, objective, vars, input, status, preferenceMultipliers);
+    }
+
+}
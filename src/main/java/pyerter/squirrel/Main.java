@@ -1,6 +1,7 @@
 package pyerter.squirrel;
 
 import pyerter.squirrel.tpp.TeamSortingLogger;
+import pyerter.squirrel.tpp.core.TeamSorterMinCostFlowSolver;
 import pyerter.squirrel.tpp.core.TeamSorterResult;
 import pyerter.squirrel.tpp.core.TeamSorterSolver;
 import pyerter.squirrel.tpp.core.TeamSortingGeneratorInput;
@@ -18,6 +19,8 @@ public class Main {
 
     static boolean useFriendship = false;
     static boolean useIntegral = false;
+    // friendships are ignored here, so the model can be solved as a plain min cost flow instead
+    static boolean useMinCostFlow = false;
 
     public static void main(String[] args) {
         System.out.printf("---Running Team Sorting, not using friendships---%n");
@@ -63,7 +66,7 @@ public class Main {
 
             logger.log(String.format("%nRunning solver..."), 0);
 
-            TeamSorterSolver solver = new TeamSorterSolver(input, useIntegral);
+            TeamSorterSolver solver = useMinCostFlow ? new TeamSorterMinCostFlowSolver(input) : new TeamSorterSolver(input, useIntegral);
             solver.setUseHardPreferenceObjectiveFunction(false);
             solver.setIgnoreFriendships(true);
             TeamSorterResult result = solver.solve(logger);
@@ -0,0 +1,247 @@
+package pyerter.squirrel;
+
+import com.google.ortools.Loader;
+import pyerter.squirrel.tpp.TeamSortingLogger;
+import pyerter.squirrel.tpp.core.TeamSorterCpSatSolver;
+import pyerter.squirrel.tpp.core.TeamSorterResult;
+import pyerter.squirrel.tpp.core.TeamSorterSolver;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+import pyerter.squirrel.tpp.io.CsvReader;
+import pyerter.squirrel.tpp.io.CsvResultWriter;
+import pyerter.squirrel.tpp.io.TeamSorterInputReadingException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// This runs team sorting on every csv file in a directory (or matching a glob) concurrently.
+// Each instance gets its own input, solver and result file; nothing is shared between workers.
+// app/cohorts --threads=4 --output=program_output --friendships=true
+public class MainBatch {
+
+    public static void main(String[] args) {
+        System.out.printf("---Running Team Sorting in batch mode---%n");
+        if (args.length < 1) {
+            System.out.println("Expected arguments: <directory or glob of .csv files> [--threads=N] [--output=directory] [--friendships=true] [--aggregate=true] [--cpsat=true] [--debug=true]");
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        String outputDirectory = "program_output";
+        boolean useFriendships = false;
+        boolean aggregate = false;
+        boolean cpSat = false;
+        boolean debug = false;
+        for (int i = 1; i < args.length; i++) {
+            String[] arg = args[i].split("=", 2);
+            String value = arg.length > 1 ? arg[1] : "";
+            try {
+                switch (arg[0].toLowerCase()) {
+                    case "--threads" -> threads = Math.max(1, Integer.parseInt(value));
+                    case "--output" -> outputDirectory = value;
+                    case "--friendships" -> useFriendships = Boolean.parseBoolean(value);
+                    case "--aggregate" -> aggregate = Boolean.parseBoolean(value);
+                    case "--cpsat" -> cpSat = Boolean.parseBoolean(value);
+                    case "--debug" -> debug = Boolean.parseBoolean(value);
+                    default -> System.out.printf("Ignoring unknown argument: %s%n", args[i]);
+                }
+            } catch (NumberFormatException e) {
+                System.out.printf("Expected an integer for %s, got: %s%n", arg[0], value);
+                return;
+            }
+        }
+
+        List<Path> files;
+        try {
+            files = findInputFiles(args[0]);
+        } catch (IOException e) {
+            System.out.println("IOException while listing input files: " + e.getMessage());
+            return;
+        }
+        if (files.isEmpty()) {
+            System.out.printf("No .csv files found for: %s%n", args[0]);
+            return;
+        }
+        System.out.printf("Solving %d instances with %d threads, writing results to %s%n", files.size(), threads, outputDirectory);
+
+        // load once up front instead of having every worker race to load the natives
+        Loader.loadNativeLibraries();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<BatchOutcome>> futures = new ArrayList<>(files.size());
+        for (Path file : files) {
+            String directory = outputDirectory;
+            boolean friendships = useFriendships;
+            boolean aggregateColumns = aggregate;
+            boolean useCpSat = cpSat;
+            boolean printStackTraces = debug;
+            futures.add(pool.submit(() -> solveInstance(file, directory, friendships, aggregateColumns, useCpSat, printStackTraces)));
+        }
+        pool.shutdown();
+
+        int solved = 0;
+        double totalSolveSeconds = 0;
+        for (Future<BatchOutcome> future : futures) {
+            BatchOutcome outcome;
+            try {
+                outcome = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("Interrupted while waiting for batch results.");
+                pool.shutdownNow();
+                return;
+            } catch (ExecutionException e) {
+                System.out.println("Worker failed: " + e.getCause());
+                continue;
+            }
+            totalSolveSeconds += outcome.seconds;
+            if (outcome.isSolved()) {
+                solved++;
+                System.out.printf("  %s: objective %.3f in %.2fs -> %s%n", outcome.file.getFileName(), outcome.objective, outcome.seconds, outcome.outputFile);
+            } else {
+                System.out.printf("  %s: failed after %.2fs > %s%n", outcome.file.getFileName(), outcome.seconds, outcome.error);
+            }
+        }
+
+        double wallSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Solved %d of %d instances in %.2fs (%.2fs of solver time across %d threads)%n",
+                solved, files.size(), wallSeconds, totalSolveSeconds, threads);
+        System.out.printf("Throughput: %.2f instances/min%n", wallSeconds > 0 ? solved * 60 / wallSeconds : 0);
+    }
+
+    // A directory yields its .csv files; anything else is treated as a glob relative to the
+    // deepest directory before the first wildcard, e.g. "cohorts/fall*/section_*.csv"
+    public static List<Path> findInputFiles(String pathOrGlob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Path path = Paths.get(pathOrGlob);
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*.csv")) {
+                stream.forEach(files::add);
+            }
+        } else if (Files.isRegularFile(path)) {
+            files.add(path);
+        } else {
+            int wildcard = indexOfWildcard(pathOrGlob);
+            int separator = Math.max(pathOrGlob.lastIndexOf('/', wildcard), pathOrGlob.lastIndexOf(File.separatorChar, wildcard));
+            Path root = separator >= 0 ? Paths.get(pathOrGlob.substring(0, Math.max(separator, 1))) : Paths.get("");
+            String pattern = pathOrGlob.substring(separator + 1);
+            PathMatcher matcher = root.getFileSystem().getPathMatcher("glob:" + pattern);
+            if (!Files.isDirectory(root.toAbsolutePath())) return files;
+            try (Stream<Path> stream = Files.walk(root.toAbsolutePath())) {
+                Path absoluteRoot = root.toAbsolutePath();
+                stream.filter(Files::isRegularFile)
+                        .filter(p -> matcher.matches(absoluteRoot.relativize(p)))
+                        .forEach(files::add);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    protected static int indexOfWildcard(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') return i;
+        }
+        return glob.length();
+    }
+
+    public static BatchOutcome solveInstance(Path file, String outputDirectory, boolean useFriendships, boolean aggregateColumns, boolean useCpSat, boolean debug) {
+        long start = System.nanoTime();
+        BatchOutcome outcome = new BatchOutcome(file);
+        try {
+            TeamSortingInput input = CsvReader.readProblemInputCsv(file.toString(), useFriendships);
+            if (input == null) {
+                outcome.error = "Input is null.";
+                return outcome.finish(start);
+            }
+            TeamSorterSolver solver;
+            if (useCpSat) {
+                // integral already, so there is nothing to round; share the cores with the other workers
+                TeamSorterCpSatSolver cpSatSolver = new TeamSorterCpSatSolver(input);
+                cpSatSolver.setNumbWorkers(1);
+                solver = cpSatSolver;
+            } else {
+                solver = new TeamSorterSolver(input, false);
+                solver.setRoundFriendships(useFriendships);
+            }
+            solver.setUseHardPreferenceObjectiveFunction(false);
+            solver.setIgnoreFriendships(!useFriendships);
+            solver.setAggregateColumns(aggregateColumns);
+            solver.setNameConstraints(debug);
+            TeamSorterResult result = solver.solve(new TeamSortingLogger(0));
+            if (result == null) {
+                outcome.error = "Could not create solver.";
+                return outcome.finish(start);
+            }
+            if (result.getRoundedResult() != null) result = result.getRoundedResult();
+            outcome.objective = result.getObjectiveValue();
+
+            String baseName = file.getFileName().toString().replaceFirst("(?i)\\.csv$", "") + "_result";
+            outcome.outputFile = CsvResultWriter.writeResultToFile(result, outputDirectory, "", baseName);
+            if (outcome.outputFile == null) outcome.error = "Could not write result file.";
+        } catch (TeamSorterInputReadingException e) {
+            outcome.error = e.getMessage();
+            if (debug && e.hasChildException()) e.getChildException().printStackTrace();
+        } catch (Exception e) {
+            outcome.error = e.getMessage();
+            if (debug) e.printStackTrace();
+        }
+        return outcome.finish(start);
+    }
+
+    public static class BatchOutcome {
+
+        protected Path file;
+        protected String outputFile;
+        protected String error;
+        protected double objective;
+        protected double seconds;
+
+        public BatchOutcome(Path file) {
+            this.file = file;
+        }
+
+        protected BatchOutcome finish(long startNanos) {
+            seconds = (System.nanoTime() - startNanos) / 1e9;
+            return this;
+        }
+
+        public boolean isSolved() {
+            return error == null;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public String getOutputFile() {
+            return outputFile;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public double getObjective() {
+            return objective;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+    }
+
+}
@@ -6,6 +6,7 @@ import pyerter.squirrel.tpp.io.CsvResultWriter;
 import pyerter.squirrel.tpp.io.TeamSorterInputReadingException;
 import pyerter.squirrel.tpp.core.TeamSorterResult;
 import pyerter.squirrel.tpp.core.TeamSorterSolver;
+import pyerter.squirrel.tpp.core.TeamSorterTemperingSolver;
 import pyerter.squirrel.tpp.core.TeamSortingInput;
 import pyerter.squirrel.tpp.io.CsvReader;
 import pyerter.squirrel.tpp.friendship.TeamSorterFriendshipSolverOld;
@@ -21,6 +22,14 @@ import java.util.stream.IntStream;
  */
 public class MainFriendship {
     static boolean useFriendship = true;
+    // choose one team per friend group instead of adding friendship constraints
+    static boolean contractFriendships = true;
+    // roundings of the LP solution tried in parallel, the best one is kept
+    static int numbRoundings = Runtime.getRuntime().availableProcessors();
+    // time to improve the rounded result with swaps and friend group moves
+    static long localSearchMillis = 1000;
+    // no LP: anneal over the assignments on every core for a fixed time instead
+    static boolean useTempering = false;
 
     public static void main(String[] args) {
         if (args.length < 1) {
@@ -62,10 +71,13 @@ public class MainFriendship {
             logger.log(String.format("%nRunning solver..."), 0);
 
 
-            TeamSorterSolver solver = new TeamSorterSolver(input, false);
+            TeamSorterSolver solver = useTempering ? new TeamSorterTemperingSolver(input) : new TeamSorterSolver(input, false);
             solver.setUseHardPreferenceObjectiveFunction(false);
             solver.setIgnoreFriendships(false);
             solver.setRoundFriendships(true);
+            solver.setContractFriendships(contractFriendships);
+            solver.setNumbRoundings(numbRoundings);
+            solver.setLocalSearchMillis(localSearchMillis);
             TeamSorterResult result;
             TeamSorterResult roundedResult;
             boolean caughtFailure = false;
@@ -0,0 +1,246 @@
+package pyerter.squirrel.tpp.core;
+
+import pyerter.squirrel.tpp.friendship.Friendship;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Running totals of the two scores a result reports, over int arrays of each member's final team
+ * and role. The preference score is the multiplier of the member's rank for their team, 1 for a
+ * team they didn't list and 0 while unassigned. The friendship score is the sum over friendships
+ * of (friends on a team / friends)^2 per team, with members outside a friendship counting as a
+ * friendship of one. Friend counts are kept per team, so moving a member is scored and applied in
+ * O(1).
+ */
+public class AssignmentScore {
+
+    protected TeamSortingInput input;
+    protected int[] preferenceMultipliers;
+    protected int numbTeams;
+    protected int[] memberTeam;
+    protected int[] memberRole;
+
+    // every member is in exactly one group, friendships keep their friend counts per team from
+    // groupCountOffsets[g], members without one have an offset of -1
+    protected int[] memberGroup;
+    protected int[][] groupMembers;
+    protected int[] groupDenominators;
+    protected int[] groupCountOffsets;
+    protected int[] teamCounts;
+
+    protected double preferenceValue;
+    protected double friendshipValue;
+
+    /**
+     * @param teams final team of each member, -1 while unassigned, copied
+     * @param roles final role of each member, -1 for any role, copied
+     */
+    public AssignmentScore(TeamSortingInput input, int[] preferenceMultipliers, int[] teams, int[] roles) {
+        this.input = input;
+        this.preferenceMultipliers = preferenceMultipliers;
+        numbTeams = input.numbTeams();
+        memberTeam = teams.clone();
+        memberRole = roles.clone();
+        createGroups();
+        recompute();
+    }
+
+    // Scores the final assignments, which must already be set
+    public static AssignmentScore of(TeamSortingInput input, int[] preferenceMultipliers, MemberAssignment[] assignments) {
+        int[] teams = new int[assignments.length];
+        int[] roles = new int[assignments.length];
+        for (int m = 0; m < assignments.length; m++) {
+            teams[m] = assignments[m].getFinalTeamAssignment();
+            roles[m] = teams[m] >= 0 ? assignments[m].getFinalTeamAssignmentRole() : -1;
+        }
+        return new AssignmentScore(input, preferenceMultipliers, teams, roles);
+    }
+
+    // Same friendships as the input, in order of their first member
+    protected void createGroups() {
+        int numbMembers = input.numbMembers();
+        memberGroup = new int[numbMembers];
+        Map<Friendship, Integer> groupIndexes = new HashMap<>();
+        List<int[]> members = new ArrayList<>();
+        List<Integer> denominators = new ArrayList<>();
+        List<Boolean> friendships = new ArrayList<>();
+        for (int m = 0; m < numbMembers; m++) {
+            Optional<Friendship> friendship = input.tryGetFriendship(input.getMember(m).getName());
+            if (friendship.isPresent()) {
+                Integer g = groupIndexes.get(friendship.get());
+                if (g == null) {
+                    g = members.size();
+                    groupIndexes.put(friendship.get(), g);
+                    friendship.get().initialize(input);
+                    members.add(friendship.get().getMemberIndexes());
+                    denominators.add(friendship.get().getFriends().length);
+                    friendships.add(true);
+                }
+                memberGroup[m] = g;
+            } else {
+                memberGroup[m] = members.size();
+                members.add(new int[] { m });
+                denominators.add(1);
+                friendships.add(false);
+            }
+        }
+        groupMembers = members.toArray(new int[0][]);
+        groupDenominators = denominators.stream().mapToInt(Integer::intValue).toArray();
+        groupCountOffsets = new int[groupMembers.length];
+        int numbCounts = 0;
+        for (int g = 0; g < groupMembers.length; g++) {
+            groupCountOffsets[g] = friendships.get(g) ? numbCounts : -1;
+            if (groupCountOffsets[g] >= 0) numbCounts += numbTeams;
+        }
+        teamCounts = new int[numbCounts];
+    }
+
+    // Rebuilds the totals from the member arrays
+    public void recompute() {
+        Arrays.fill(teamCounts, 0);
+        preferenceValue = 0;
+        for (int m = 0; m < memberTeam.length; m++) {
+            preferenceValue += getValue(m, memberTeam[m]);
+            int offset = groupCountOffsets[memberGroup[m]];
+            if (offset >= 0 && memberTeam[m] >= 0) teamCounts[offset + memberTeam[m]]++;
+        }
+        friendshipValue = 0;
+        for (int g = 0; g < groupMembers.length; g++) {
+            int offset = groupCountOffsets[g];
+            if (offset < 0) {
+                // a member on their own is always fully concentrated once placed
+                if (memberTeam[groupMembers[g][0]] >= 0) friendshipValue += 1;
+                continue;
+            }
+            double denominator = groupDenominators[g];
+            for (int t = 0; t < numbTeams; t++) {
+                double concentration = teamCounts[offset + t] / denominator;
+                friendshipValue += concentration * concentration;
+            }
+        }
+    }
+
+    public TeamSortingInput getInput() {
+        return input;
+    }
+
+    public int numbMembers() {
+        return memberTeam.length;
+    }
+
+    public int getTeam(int m) {
+        return memberTeam[m];
+    }
+
+    public int getRole(int m) {
+        return memberRole[m];
+    }
+
+    public int numbGroups() {
+        return groupMembers.length;
+    }
+
+    // Friendship of the member, or a group of just the member
+    public int getGroup(int m) {
+        return memberGroup[m];
+    }
+
+    public int[] getGroupMembers(int g) {
+        return groupMembers[g];
+    }
+
+    // Members of the group on the team
+    public int getGroupCount(int g, int t) {
+        int offset = groupCountOffsets[g];
+        if (offset >= 0) return teamCounts[offset + t];
+        return memberTeam[groupMembers[g][0]] == t ? 1 : 0;
+    }
+
+    // What the member is worth on the team
+    public double getValue(int m, int t) {
+        if (t < 0) return 0;
+        int rank = input.getPreferenceRank(m, t);
+        return rank >= 0 ? preferenceMultipliers[rank] : 1;
+    }
+
+    public double getPreferenceValue() {
+        return preferenceValue;
+    }
+
+    public double getFriendshipValue() {
+        return friendshipValue;
+    }
+
+    public double getScore() {
+        return preferenceValue + friendshipValue;
+    }
+
+    protected double getFriendshipDelta(int m, int from, int to) {
+        int g = memberGroup[m];
+        int offset = groupCountOffsets[g];
+        if (offset < 0) {
+            // only placing or unplacing a member on their own changes anything
+            if (from >= 0 && to >= 0) return 0;
+            return to >= 0 ? 1 : -1;
+        }
+        double denominator = groupDenominators[g];
+        double squared = denominator * denominator;
+        double delta = 0;
+        if (from >= 0) {
+            int count = teamCounts[offset + from];
+            delta += ((count - 1) * (count - 1) - count * count) / squared;
+        }
+        if (to >= 0) {
+            int count = teamCounts[offset + to];
+            delta += ((count + 1) * (count + 1) - count * count) / squared;
+        }
+        return delta;
+    }
+
+    /**
+     * Moves the member and updates the totals.
+     * @param t team, -1 to unassign
+     * @param r role, -1 for any role
+     * @return change of the score
+     */
+    public double move(int m, int t, int r) {
+        int from = memberTeam[m];
+        memberRole[m] = t >= 0 ? r : -1;
+        if (from == t) return 0;
+        double preferenceDelta = getValue(m, t) - getValue(m, from);
+        double friendshipDelta = getFriendshipDelta(m, from, t);
+        int offset = groupCountOffsets[memberGroup[m]];
+        if (offset >= 0) {
+            if (from >= 0) teamCounts[offset + from]--;
+            if (t >= 0) teamCounts[offset + t]++;
+        }
+        memberTeam[m] = t;
+        preferenceValue += preferenceDelta;
+        friendshipValue += friendshipDelta;
+        return preferenceDelta + friendshipDelta;
+    }
+
+    // Copies of the member arrays
+    public int[] getTeams() {
+        return memberTeam.clone();
+    }
+
+    public int[] getRoles() {
+        return memberRole.clone();
+    }
+
+    // Copies the current teams and roles into the arrays, for keeping a best placement
+    public void copyTo(int[] teams, int[] roles) {
+        System.arraycopy(memberTeam, 0, teams, 0, memberTeam.length);
+        System.arraycopy(memberRole, 0, roles, 0, memberRole.length);
+    }
+
+}
@@ -14,6 +14,7 @@ public class MemberAssignment {
     public static final float TOLERANCE = 0.00001f;
     protected int member;
     protected Member m;
+    protected TeamSortingInput input;
     protected double[] teamAssignments;
     protected int[] assignedTeams;
     protected String[] assignedTeamNames;
@@ -27,12 +28,16 @@ public class MemberAssignment {
     protected String finalTeamAssignmentRoleName = "";
 
     public MemberAssignment(TeamSortingInput input, int member, MPVariable[] memberRow, boolean detailedPrinting) {
+        this(input, member, Arrays.stream(memberRow).mapToDouble(v -> v != null ? v.solutionValue() : 0).toArray(), detailedPrinting);
+    }
+
+    public MemberAssignment(TeamSortingInput input, int member, double[] memberRow, boolean detailedPrinting) {
         this.member = member;
+        this.input = input;
         m = input.getMember(member);
-        teamAssignments = new double[memberRow.length];
+        teamAssignments = memberRow;
         int numbAssignedTeams = 0;
         for (int i = 0; i < memberRow.length; i++) {
-            teamAssignments[i] = memberRow[i].solutionValue();
             if (teamAssignments[i] >= TOLERANCE) {
                 numbAssignedTeams++;
             }
@@ -77,6 +82,24 @@ public class MemberAssignment {
         }
     }
 
+    // Copy with a final assignment of its own, the solution values are shared
+    public MemberAssignment(MemberAssignment other) {
+        member = other.member;
+        input = other.input;
+        m = other.m;
+        teamAssignments = other.teamAssignments;
+        assignedTeams = other.assignedTeams;
+        assignedTeamNames = other.assignedTeamNames;
+        assignedRoleNames = other.assignedRoleNames;
+        positiveTeams = other.positiveTeams;
+        singleTeamName = other.singleTeamName;
+        singleRoleName = other.singleRoleName;
+        finalTeamAssignment = other.finalTeamAssignment;
+        finalTeamAssignmentRole = other.finalTeamAssignmentRole;
+        finalTeamAssignmentName = other.finalTeamAssignmentName;
+        finalTeamAssignmentRoleName = other.finalTeamAssignmentRoleName;
+    }
+
     public int getMemberIndex() {
         return member;
     }
@@ -119,6 +142,14 @@ public class MemberAssignment {
         this.finalTeamAssignmentRoleName = finalTeamAssignmentRole >= 0 ? input.getRoles()[finalTeamAssignmentRole] : "<Any>";
     }
 
+    // For placements that didn't come from a column, e.g. after local search
+    public void setFinalTeamAssignment(int finalTeamAssignment, int finalRole, TeamSortingInput input) {
+        this.finalTeamAssignment = finalTeamAssignment;
+        this.finalTeamAssignmentRole = finalRole;
+        this.finalTeamAssignmentName = input.getTeams()[finalTeamAssignment];
+        this.finalTeamAssignmentRoleName = finalTeamAssignmentRole >= 0 ? input.getRoles()[finalTeamAssignmentRole] : "<Any>";
+    }
+
     public int getFinalTeamAssignment() {
         return finalTeamAssignment;
     }
@@ -135,11 +166,16 @@ public class MemberAssignment {
         return finalTeamAssignmentRoleName;
     }
 
+    // Rank of the final team in the member's preferences, -1 if not preferred or not assigned yet
+    public int getFinalPreference() {
+        return input.getPreferenceRank(member, finalTeamAssignment);
+    }
+
     public String toPrintFinalAssignment() {
         if (finalTeamAssignment >= 0) {
             return String.format("Member (%d) %s assigned to %s as %s: Preference %d",
                     member, m.getName(), finalTeamAssignmentName, finalTeamAssignmentRoleName,
-                    m.getPreference(finalTeamAssignmentName));
+                    getFinalPreference());
         }
         return "No final assignment set yet.";
     }
@@ -148,7 +184,7 @@ public class MemberAssignment {
         if (finalTeamAssignment < 0) {
             return 0;
         }
-        int preference = m.getPreference(finalTeamAssignmentName);
+        int preference = getFinalPreference();
         if (preference >= 0) {
             return preferenceMultipliers[preference];
         }
@@ -158,19 +194,19 @@ public class MemberAssignment {
 
     public String toPrintAssignment() {
         if (assignedTeams.length == 0) return String.format("Member (%d) %s assigned to no team", member, m.getName());
-        if (assignedTeams.length == 1) return String.format("Member (%d) %s assigned to %s as %s (x_%d=%f): Preference %d", member, m.getName(), singleTeamName, singleRoleName, assignedTeams[0], teamAssignments[assignedTeams[0]], m.getPreference(assignedTeamNames[0]) + 1);
+        if (assignedTeams.length == 1) return String.format("Member (%d) %s assigned to %s as %s (x_%d=%f): Preference %d", member, m.getName(), singleTeamName, singleRoleName, assignedTeams[0], teamAssignments[assignedTeams[0]], input.getColumnPreferenceRank(member, assignedTeams[0]) + 1);
         String result = String.format("Member (%d) %s assigned to ", member, m.getName());
         if (positiveTeams == 0 || positiveTeams == 1) {
             String[] teamAssignments = new String[assignedTeams.length];
             for (int i = 0; i < teamAssignments.length; i++) {
-                teamAssignments[i] = String.format("(x_%d=%f, P%d)", assignedTeams[i], this.teamAssignments[assignedTeams[i]], m.getPreference(assignedTeamNames[i]) + 1);
+                teamAssignments[i] = String.format("(x_%d=%f, P%d)", assignedTeams[i], this.teamAssignments[assignedTeams[i]], input.getColumnPreferenceRank(member, assignedTeams[i]) + 1);
             }
             result += String.format("%s as %s, split: %s", singleTeamName, singleRoleName,
                     Arrays.toString(teamAssignments));
         } else {
             String[] teams = new String[assignedTeams.length];
             for (int i = 0; i < teams.length; i++) {
-                teams[i] = String.format("%s as %s (x_%d=%f, P%d)", assignedTeamNames[i], assignedRoleNames[i], assignedTeams[i], teamAssignments[assignedTeams[i]], m.getPreference(assignedTeamNames[i]) + 1);
+                teams[i] = String.format("%s as %s (x_%d=%f, P%d)", assignedTeamNames[i], assignedRoleNames[i], assignedTeams[i], teamAssignments[assignedTeams[i]], input.getColumnPreferenceRank(member, assignedTeams[i]) + 1);
             }
             result += "many teams: " + Arrays.toString(teams);
         }
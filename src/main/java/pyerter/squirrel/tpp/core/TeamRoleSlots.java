@@ -0,0 +1,161 @@
+package pyerter.squirrel.tpp.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Groups the augmented columns of an input into slot types: all columns with the same team and
+ * role are interchangeable, so a slot type stands in for all of them with a capacity equal to the
+ * number of columns. A slot type is (team, role) for role seats, (team, any) for minimum member
+ * padding and (any, any) for wild columns.
+ */
+public class TeamRoleSlots {
+
+    public static final double TOLERANCE = 0.000001;
+
+    protected TeamSortingInput input;
+    protected int[] slotTeam;
+    protected int[] slotRole;
+    protected int[][] slotColumns;
+    protected int[] columnSlot;
+    protected int[][] slotsOfTeam;
+    protected int[] wildSlots;
+
+    public TeamRoleSlots(TeamSortingInput input) {
+        this.input = input;
+        int numbColumns = input.numbAugmentedColumns();
+        columnSlot = new int[numbColumns];
+        // slots are numbered in order of their first column, so the wild slot comes last
+        Map<Long, Integer> slotOfTeamRole = new HashMap<>();
+        int[] capacities = new int[numbColumns];
+        int numbSlots = 0;
+        for (int j = 0; j < numbColumns; j++) {
+            long key = ((long) input.getJToTeam(j) << 32) | (input.getJToRole(j) & 0xffffffffL);
+            Integer slot = slotOfTeamRole.get(key);
+            if (slot == null) {
+                slot = numbSlots++;
+                slotOfTeamRole.put(key, slot);
+            }
+            columnSlot[j] = slot;
+            capacities[slot]++;
+        }
+        slotTeam = new int[numbSlots];
+        slotRole = new int[numbSlots];
+        slotColumns = new int[numbSlots][];
+        for (int s = 0; s < numbSlots; s++) {
+            slotColumns[s] = new int[capacities[s]];
+            capacities[s] = 0; // now use as a counter to indicate next point in array while adding columns
+        }
+        int[] numbSlotsOfTeam = new int[input.numbTeams()];
+        int numbWildSlots = 0;
+        for (int j = 0; j < numbColumns; j++) {
+            int s = columnSlot[j];
+            if (capacities[s] == 0) {
+                slotTeam[s] = input.getJToTeam(j);
+                slotRole[s] = input.getJToRole(j);
+                if (slotTeam[s] >= 0) numbSlotsOfTeam[slotTeam[s]]++;
+                else numbWildSlots++;
+            }
+            slotColumns[s][capacities[s]++] = j;
+        }
+        slotsOfTeam = new int[input.numbTeams()][];
+        for (int t = 0; t < slotsOfTeam.length; t++) {
+            slotsOfTeam[t] = new int[numbSlotsOfTeam[t]];
+            numbSlotsOfTeam[t] = 0;
+        }
+        wildSlots = new int[numbWildSlots];
+        numbWildSlots = 0;
+        for (int s = 0; s < numbSlots; s++) {
+            if (slotTeam[s] >= 0) slotsOfTeam[slotTeam[s]][numbSlotsOfTeam[slotTeam[s]]++] = s;
+            else wildSlots[numbWildSlots++] = s;
+        }
+    }
+
+    public int numbSlots() {
+        return slotColumns.length;
+    }
+
+    public int getTeam(int slot) {
+        return slotTeam[slot];
+    }
+
+    public int getRole(int slot) {
+        return slotRole[slot];
+    }
+
+    public int getCapacity(int slot) {
+        return slotColumns[slot].length;
+    }
+
+    public int[] getColumns(int slot) {
+        return slotColumns[slot];
+    }
+
+    // Any column of the slot, all of them have the same team and role
+    public int getRepresentativeColumn(int slot) {
+        return slotColumns[slot][0];
+    }
+
+    public int getSlotOfColumn(int j) {
+        return columnSlot[j];
+    }
+
+    public int[] getSlotsOfTeam(int t) {
+        return slotsOfTeam[t];
+    }
+
+    public int[] getWildSlots() {
+        return wildSlots;
+    }
+
+    /**
+     * Spreads slot values back over the slot's columns, filling one column before moving on to
+     * the next. Every column ends up summing to 1 when the slot's values sum to its capacity, and
+     * integral slot values give integral column values.
+     * @param slotValues values indexed [member][slot]
+     * @return values indexed [member][column]
+     */
+    public double[][] expand(double[][] slotValues) {
+        double[][] columnValues = new double[slotValues.length][input.numbAugmentedColumns()];
+        for (int s = 0; s < numbSlots(); s++) {
+            int[] columns = slotColumns[s];
+            int current = 0;
+            double filled = 0;
+            for (int m = 0; m < slotValues.length; m++) {
+                double remaining = slotValues[m][s];
+                while (remaining > TOLERANCE) {
+                    double amount = Math.min(remaining, 1 - filled);
+                    columnValues[m][columns[current]] += amount;
+                    remaining -= amount;
+                    filled += amount;
+                    if (filled >= 1 - TOLERANCE) {
+                        if (current == columns.length - 1) {
+                            // over capacity only by solver tolerance, keep the rest on the last column
+                            columnValues[m][columns[current]] += remaining;
+                            break;
+                        }
+                        current++;
+                        filled = 0;
+                    }
+                }
+            }
+        }
+        return columnValues;
+    }
+
+    public String toPrintSlots() {
+        String[] slots = new String[numbSlots()];
+        for (int s = 0; s < slots.length; s++) {
+            slots[s] = String.format("(%s, %s) x%d",
+                    slotTeam[s] >= 0 ? input.getTeams()[slotTeam[s]] : "<Any>",
+                    slotRole[s] >= 0 ? input.getRoles()[slotRole[s]] : "<Any>",
+                    getCapacity(s));
+        }
+        return Arrays.toString(slots);
+    }
+
+}
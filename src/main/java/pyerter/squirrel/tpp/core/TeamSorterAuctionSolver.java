@@ -0,0 +1,263 @@
+package pyerter.squirrel.tpp.core;
+
+import pyerter.squirrel.tpp.TeamSortingLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Solves friendship-free inputs with a Bertsekas auction in plain Java, so no native library
+ * has to be loaded. Members bid for the augmented columns (seats), and a seat's price goes up
+ * with every bid it takes until each member holds the seat that is best for them at the
+ * current prices, within epsilon. Epsilon is scaled down between phases, and the benefits are
+ * scaled by (members + 1) so the last phase with epsilon 1 ends at an optimal assignment.
+ *
+ * Seats of the same slot type (see TeamRoleSlots) are worth the same to a member, so a member
+ * only has to look at the two cheapest seats of each slot they can take. Unassigned members bid
+ * in parallel on a fork-join pool (Jacobi auction), and the bids for each slot go to its
+ * cheapest seats, highest bid first.
+ */
+public class TeamSorterAuctionSolver extends TeamSorterSolver {
+
+    protected static final long NO_VALUE = Long.MIN_VALUE;
+
+    protected int numbWorkers = Runtime.getRuntime().availableProcessors();
+    protected int epsilonFactor = 5;
+
+    // set up for each solve
+    protected TeamRoleSlots slots;
+    protected int[][] memberSlots;
+    protected long[][] memberBenefits;
+    protected long[] seatPrices;
+    protected int[] seatOwners;
+    protected int[] memberSeats;
+    protected List<TreeSet<Integer>> slotSeats;
+    protected int[] bidSlots;
+    protected long[] bidPrices;
+    protected long priceBound;
+    protected long rounds;
+
+    public TeamSorterAuctionSolver(TeamSortingInput input) {
+        super(input, true);
+        ignoreFriendships = true;
+    }
+
+    public int getNumbWorkers() {
+        return numbWorkers;
+    }
+
+    public void setNumbWorkers(int numbWorkers) {
+        this.numbWorkers = numbWorkers;
+    }
+
+    public int getEpsilonFactor() {
+        return epsilonFactor;
+    }
+
+    // How much epsilon is divided by between phases
+    public void setEpsilonFactor(int epsilonFactor) {
+        this.epsilonFactor = Math.max(2, epsilonFactor);
+    }
+
+    @Override
+    public TeamSorterResult solve(TeamSortingLogger logger) {
+        if (!ignoreFriendships && input.numbFriendships() > 0) {
+            // bids are per member, so there is no way to keep friends together
+            logger.log("    Friendships can't be expressed as an auction, solving the integral model instead");
+            return super.solve(logger);
+        }
+        long start = System.nanoTime();
+        slots = new TeamRoleSlots(input);
+        int[] preferenceMultipliers = createPreferenceMultipliers();
+        long maxBenefit = createBenefits(preferenceMultipliers);
+        initializeSeats();
+        int numbMembers = input.numbMembers();
+        // with a perfect assignment no seat is ever bid up past this
+        priceBound = 2 * (numbMembers + 1L) * (maxBenefit + 1);
+        logger.log(String.format("%dx%d Auction: %d slot types, %d workers", numbMembers, input.numbAugmentedColumns(),
+                slots.numbSlots(), numbWorkers), 3);
+
+        ForkJoinPool pool = new ForkJoinPool(numbWorkers);
+        int phases = 0;
+        try {
+            long epsilon = Math.max(1, maxBenefit / epsilonFactor);
+            while (true) {
+                runPhase(pool, epsilon);
+                phases++;
+                if (epsilon == 1) break;
+                epsilon = Math.max(1, epsilon / epsilonFactor);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        long wallTime = (System.nanoTime() - start) / 1_000_000;
+        logger.log(String.format("    Auction finished after %d phases and %d bidding rounds", phases, rounds), 3);
+
+        double[][] solution = new double[numbMembers][input.numbAugmentedColumns()];
+        long objectiveValue = 0;
+        for (int m = 0; m < numbMembers; m++) {
+            solution[m][memberSeats[m]] = 1;
+            objectiveValue += getBenefit(m, slots.getSlotOfColumn(memberSeats[m])) / (numbMembers + 1);
+        }
+
+        TeamSorterResult result = createResult(null, null, solution, TeamSorterStatus.OPTIMAL, preferenceMultipliers);
+        result.setSolveStatistics(objectiveValue, wallTime, rounds);
+        return result;
+    }
+
+    // Lists the slots each member can take with their objective coefficient scaled by
+    // (members + 1). Returns the largest scaled benefit.
+    protected long createBenefits(int[] preferenceMultipliers) {
+        int numbMembers = input.numbMembers();
+        int objAdder = getObjectiveAdder();
+        long scale = numbMembers + 1L;
+        long maxBenefit = 1;
+        memberSlots = new int[numbMembers][];
+        memberBenefits = new long[numbMembers][];
+        int[] eligible = new int[slots.numbSlots()];
+        for (int m = 0; m < numbMembers; m++) {
+            int[] memberRoles = input.getMemberRoles(m);
+            Arrays.sort(memberRoles);
+            int count = 0;
+            for (int s = 0; s < slots.numbSlots(); s++) {
+                if (isColumnEligible(m, slots.getRepresentativeColumn(s), memberRoles)) eligible[count++] = s;
+            }
+            if (count == 0) {
+                throw new RuntimeException("No feasible solution found.");
+            }
+            memberSlots[m] = Arrays.copyOf(eligible, count);
+            memberBenefits[m] = new long[count];
+            for (int i = 0; i < count; i++) {
+                long coefficient = (long) getObjectiveCoefficient(m, slots.getRepresentativeColumn(eligible[i]), objAdder, preferenceMultipliers);
+                memberBenefits[m][i] = coefficient * scale;
+                maxBenefit = Math.max(maxBenefit, memberBenefits[m][i]);
+            }
+        }
+        return maxBenefit;
+    }
+
+    protected long getBenefit(int m, int slot) {
+        int i = Arrays.binarySearch(memberSlots[m], slot);
+        return memberBenefits[m][i];
+    }
+
+    protected void initializeSeats() {
+        int numbColumns = input.numbAugmentedColumns();
+        seatPrices = new long[numbColumns];
+        seatOwners = new int[numbColumns];
+        memberSeats = new int[input.numbMembers()];
+        bidSlots = new int[input.numbMembers()];
+        bidPrices = new long[input.numbMembers()];
+        rounds = 0;
+        // cheapest seat first; a seat has to be taken out before its price changes
+        Comparator<Integer> byPrice = Comparator.<Integer>comparingLong(j -> seatPrices[j]).thenComparingInt(j -> j);
+        slotSeats = new ArrayList<>(slots.numbSlots());
+        for (int s = 0; s < slots.numbSlots(); s++) {
+            TreeSet<Integer> seats = new TreeSet<>(byPrice);
+            for (int j : slots.getColumns(s)) seats.add(j);
+            slotSeats.add(seats);
+        }
+    }
+
+    // Auctions every member off again at the current prices, which carry over from the last phase
+    protected void runPhase(ForkJoinPool pool, long epsilon) {
+        Arrays.fill(seatOwners, -1);
+        Arrays.fill(memberSeats, -1);
+        int[] unassigned = IntStream.range(0, input.numbMembers()).toArray();
+        long[] cheapest = new long[slots.numbSlots()];
+        long[] secondCheapest = new long[slots.numbSlots()];
+        while (unassigned.length > 0) {
+            rounds++;
+            for (int s = 0; s < slots.numbSlots(); s++) {
+                TreeSet<Integer> seats = slotSeats.get(s);
+                int first = seats.first();
+                Integer second = seats.higher(first);
+                cheapest[s] = seatPrices[first];
+                secondCheapest[s] = second != null ? seatPrices[second] : NO_VALUE;
+            }
+
+            int[] bidders = unassigned;
+            pool.submit(() -> Arrays.stream(bidders).parallel()
+                    .forEach(m -> placeBid(m, epsilon, cheapest, secondCheapest))).join();
+
+            List<List<Integer>> slotBidders = new ArrayList<>(slots.numbSlots());
+            for (int s = 0; s < slots.numbSlots(); s++) slotBidders.add(new ArrayList<>());
+            for (int m : bidders) slotBidders.get(bidSlots[m]).add(m);
+
+            // each slot only touches its own seats and the members bidding for or holding them
+            int[][] outbid = pool.submit(() -> IntStream.range(0, slots.numbSlots()).parallel()
+                    .mapToObj(s -> awardSeats(s, slotBidders.get(s), epsilon))
+                    .toArray(int[][]::new)).join();
+            unassigned = Arrays.stream(outbid).flatMapToInt(Arrays::stream).toArray();
+        }
+    }
+
+    // Bids for the cheapest seat of the member's best slot, raising its price by the margin over
+    // the member's next best seat plus epsilon
+    protected void placeBid(int m, long epsilon, long[] cheapest, long[] secondCheapest) {
+        int[] memberSlot = memberSlots[m];
+        long[] benefit = memberBenefits[m];
+        int bestSlot = -1;
+        long best = NO_VALUE;
+        long second = NO_VALUE;
+        for (int i = 0; i < memberSlot.length; i++) {
+            int s = memberSlot[i];
+            long value = benefit[i] - cheapest[s];
+            if (value > best) {
+                second = best;
+                best = value;
+                bestSlot = s;
+            } else if (value > second) {
+                second = value;
+            }
+            if (secondCheapest[s] != NO_VALUE) second = Math.max(second, benefit[i] - secondCheapest[s]);
+        }
+        long increment = second != NO_VALUE ? best - second + epsilon : epsilon;
+        long bid = cheapest[bestSlot] + increment;
+        if (bid > priceBound) {
+            // prices only climb this high when some seat can't be filled by anyone
+            throw new RuntimeException("No feasible solution found.");
+        }
+        bidSlots[m] = bestSlot;
+        bidPrices[m] = bid;
+    }
+
+    // Gives the i-th highest bid the i-th cheapest seat, as long as it raises the seat's price by
+    // at least epsilon. Returns the members left without a seat: losing bidders and the previous
+    // holders of the seats that were taken.
+    protected int[] awardSeats(int s, List<Integer> bidders, long epsilon) {
+        if (bidders.isEmpty()) return new int[0];
+        bidders.sort(Comparator.<Integer>comparingLong(m -> bidPrices[m]).reversed().thenComparingInt(m -> m));
+        TreeSet<Integer> seats = slotSeats.get(s);
+        int[] taken = new int[Math.min(bidders.size(), seats.size())];
+        for (int i = 0; i < taken.length; i++) taken[i] = seats.pollFirst();
+
+        int[] outbid = new int[bidders.size()];
+        int numbOutbid = 0;
+        int i = 0;
+        for (; i < taken.length; i++) {
+            int m = bidders.get(i);
+            int seat = taken[i];
+            if (bidPrices[m] < seatPrices[seat] + epsilon) break;
+            if (seatOwners[seat] >= 0) {
+                memberSeats[seatOwners[seat]] = -1;
+                outbid[numbOutbid++] = seatOwners[seat];
+            }
+            seatOwners[seat] = m;
+            memberSeats[m] = seat;
+            seatPrices[seat] = bidPrices[m];
+        }
+        for (int j = i; j < bidders.size(); j++) outbid[numbOutbid++] = bidders.get(j);
+        for (int seat : taken) seats.add(seat);
+        return Arrays.copyOf(outbid, numbOutbid);
+    }
+
+}
@@ -0,0 +1,23 @@
+package pyerter.squirrel.tpp.core;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Receives the constraints of the column model one row at a time. TeamSorterSolver writes each
+ * constraint family once through this, so the loops of a family don't depend on what the rows
+ * end up as (MPSolver constraints for TeamSorterSolver.SolverConstraintWriter).
+ */
+public interface TeamSorterConstraintWriter {
+
+    // Whether names are kept, the builders only format a name when they are
+    boolean keepsNames();
+
+    // Starts a constraint, the coefficients that follow belong to it. The name is null when
+    // names are not kept.
+    void addConstraint(double lb, double ub, String name);
+
+    // Adds member m in column j to the current constraint, ignored for pruned cells
+    void setCoefficient(int m, int j, double coefficient);
+
+}
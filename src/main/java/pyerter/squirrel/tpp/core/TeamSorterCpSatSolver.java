@@ -0,0 +1,200 @@
+package pyerter.squirrel.tpp.core;
+
+import com.google.ortools.Loader;
+import com.google.ortools.sat.BoolVar;
+import com.google.ortools.sat.CpModel;
+import com.google.ortools.sat.CpSolver;
+import com.google.ortools.sat.CpSolverStatus;
+import com.google.ortools.sat.LinearExpr;
+import com.google.ortools.sat.LinearExprBuilder;
+import com.google.ortools.sat.Literal;
+import pyerter.squirrel.tpp.TeamSortingLogger;
+import pyerter.squirrel.tpp.friendship.Friendship;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Integral solves with OR-Tools' CP-SAT instead of SCIP. Each member gets one boolean per
+ * team-role slot type they can take (see TeamRoleSlots), and friends are kept together with
+ * equalities between their per-team assignments instead of the weighted LP rows. The result
+ * is expanded back to columns, so it has the same shape as the MPSolver results.
+ */
+public class TeamSorterCpSatSolver extends TeamSorterSolver {
+
+    protected int numbWorkers = Runtime.getRuntime().availableProcessors();
+    protected double timeLimitSeconds = 60;
+
+    public TeamSorterCpSatSolver(TeamSortingInput input) {
+        super(input, true);
+    }
+
+    public int getNumbWorkers() {
+        return numbWorkers;
+    }
+
+    public void setNumbWorkers(int numbWorkers) {
+        this.numbWorkers = numbWorkers;
+    }
+
+    public double getTimeLimitSeconds() {
+        return timeLimitSeconds;
+    }
+
+    // When the limit is hit, the best solution found so far is returned with status FEASIBLE
+    public void setTimeLimitSeconds(double timeLimitSeconds) {
+        this.timeLimitSeconds = timeLimitSeconds;
+    }
+
+    @Override
+    public TeamSorterResult solve(TeamSortingLogger logger) {
+        Loader.loadNativeLibraries();
+
+        TeamRoleSlots slots = new TeamRoleSlots(input);
+        CpModel model = new CpModel();
+        BoolVar[][] vars = createBoolVars(model, slots);
+
+        createSlotCapacities(model, vars, slots);
+        createMemberAssignments(model, vars);
+        createTeamSizeRequirements(model, vars, slots);
+        int friendshipConstraints = createFriendshipRequirements(model, vars, slots);
+        logger.log(String.format("%dx%d CP-SAT model: %d boolean variables, %d friendship equalities",
+                input.numbRows(), slots.numbSlots(), model.model().getVariablesCount(), friendshipConstraints), 3);
+
+        int[] preferenceMultipliers = createPreferenceMultipliers();
+        createObjective(model, vars, slots, preferenceMultipliers);
+
+        CpSolver solver = new CpSolver();
+        // the full LP relaxation is what proves optimality here, without it small worker counts
+        // find the optimum quickly but can spend the whole time limit closing the bound
+        solver.getParameters().setNumWorkers(numbWorkers).setMaxTimeInSeconds(timeLimitSeconds).setLinearizationLevel(2);
+        logger.log(String.format("    Solving with CP-SAT (%d workers, %.1fs limit)", numbWorkers, timeLimitSeconds));
+        CpSolverStatus status = solver.solve(model);
+        TeamSorterStatus resultStatus = toResultStatus(status);
+
+        if (!resultStatus.hasSolution()) {
+            throw new RuntimeException("No feasible solution found.");
+        }
+
+        double[][] slotValues = new double[vars.length][slots.numbSlots()];
+        for (int m = 0; m < vars.length; m++) {
+            for (int s = 0; s < vars[m].length; s++) {
+                if (vars[m][s] != null && solver.booleanValue(vars[m][s])) slotValues[m][s] = 1;
+            }
+        }
+
+        TeamSorterResult result = createResult(null, null, slots.expand(slotValues), resultStatus, preferenceMultipliers);
+        long wallTime = (long) (solver.wallTime() * 1000);
+        result.setSolveStatistics(solver.objectiveValue(), wallTime, solver.numBranches());
+        if (result.getRoundedResult() != null)
+            result.getRoundedResult().setSolveStatistics(solver.objectiveValue(), wallTime, solver.numBranches());
+        return result;
+    }
+
+    public static TeamSorterStatus toResultStatus(CpSolverStatus status) {
+        return switch (status) {
+            case OPTIMAL -> TeamSorterStatus.OPTIMAL;
+            case FEASIBLE -> TeamSorterStatus.FEASIBLE;
+            case INFEASIBLE -> TeamSorterStatus.INFEASIBLE;
+            case MODEL_INVALID -> TeamSorterStatus.MODEL_INVALID;
+            default -> TeamSorterStatus.NOT_SOLVED;
+        };
+    }
+
+    // Only the slots a member can take get a variable, as in the pruned LP
+    protected BoolVar[][] createBoolVars(CpModel model, TeamRoleSlots slots) {
+        BoolVar[][] vars = new BoolVar[input.numbMembers()][slots.numbSlots()];
+        for (int m = 0; m < vars.length; m++) {
+            int[] memberRoles = input.getMemberRoles(m);
+            Arrays.sort(memberRoles);
+            for (int s = 0; s < slots.numbSlots(); s++) {
+                if (isColumnEligible(m, slots.getRepresentativeColumn(s), memberRoles)) {
+                    vars[m][s] = model.newBoolVar(nameConstraints ? String.format("x_%d_%d", m, s) : "");
+                }
+            }
+        }
+        return vars;
+    }
+
+    protected void createSlotCapacities(CpModel model, BoolVar[][] vars, TeamRoleSlots slots) {
+        for (int s = 0; s < slots.numbSlots(); s++) {
+            List<Literal> slotVars = new ArrayList<>();
+            for (int m = 0; m < vars.length; m++) {
+                if (vars[m][s] != null) slotVars.add(vars[m][s]);
+            }
+            model.addEquality(LinearExpr.sum(slotVars.toArray(Literal[]::new)), slots.getCapacity(s));
+        }
+    }
+
+    protected void createMemberAssignments(CpModel model, BoolVar[][] vars) {
+        for (int m = 0; m < vars.length; m++) {
+            List<Literal> memberVars = new ArrayList<>();
+            for (BoolVar v : vars[m]) {
+                if (v != null) memberVars.add(v);
+            }
+            model.addExactlyOne(memberVars);
+        }
+    }
+
+    protected void createTeamSizeRequirements(CpModel model, BoolVar[][] vars, TeamRoleSlots slots) {
+        for (int t = 0; t < input.numbTeams(); t++) {
+            LinearExprBuilder teamSize = LinearExpr.newBuilder();
+            for (int s : slots.getSlotsOfTeam(t)) {
+                for (int m = 0; m < vars.length; m++) {
+                    if (vars[m][s] != null) teamSize.add(vars[m][s]);
+                }
+            }
+            model.addLinearConstraint(teamSize, input.getTeamMinimumMembers(t), Long.MAX_VALUE);
+        }
+    }
+
+    // Same meaning as the LP friendship rows: for every team, each friend is either on that team
+    // or in a wild column exactly when the others are. Chaining equalities between consecutive
+    // friends is enough to make them all equal.
+    protected int createFriendshipRequirements(CpModel model, BoolVar[][] vars, TeamRoleSlots slots) {
+        if (ignoreFriendships) return 0;
+        int count = 0;
+        int[] wildSlots = slots.getWildSlots();
+        for (Friendship friendship : input.getFriendships()) {
+            int[] memberIndexes = friendship.getMemberIndexes();
+            for (int t = 0; t < input.numbTeams(); t++) {
+                int[] teamSlots = slots.getSlotsOfTeam(t);
+                LinearExpr previous = null;
+                for (int m : memberIndexes) {
+                    LinearExprBuilder onTeam = LinearExpr.newBuilder();
+                    for (int s : teamSlots) {
+                        if (vars[m][s] != null) onTeam.add(vars[m][s]);
+                    }
+                    for (int s : wildSlots) {
+                        if (vars[m][s] != null) onTeam.add(vars[m][s]);
+                    }
+                    LinearExpr current = onTeam.build();
+                    if (previous != null) {
+                        model.addEquality(previous, current);
+                        count++;
+                    }
+                    previous = current;
+                }
+            }
+        }
+        return count;
+    }
+
+    protected void createObjective(CpModel model, BoolVar[][] vars, TeamRoleSlots slots, int[] preferenceMultipliers) {
+        int objAdder = getObjectiveAdder();
+        LinearExprBuilder objective = LinearExpr.newBuilder();
+        for (int m = 0; m < vars.length; m++) {
+            for (int s = 0; s < vars[m].length; s++) {
+                if (vars[m][s] == null) continue;
+                long coefficient = (long) getObjectiveCoefficient(m, slots.getRepresentativeColumn(s), objAdder, preferenceMultipliers);
+                if (coefficient != 0) objective.addTerm(vars[m][s], coefficient);
+            }
+        }
+        model.maximize(objective);
+    }
+
+}
@@ -0,0 +1,102 @@
+package pyerter.squirrel.tpp.core;
+
+import com.google.ortools.Loader;
+import com.google.ortools.graph.MinCostFlow;
+import com.google.ortools.graph.MinCostFlowBase;
+import pyerter.squirrel.tpp.TeamSortingLogger;
+
+import java.util.Arrays;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Solves friendship-free inputs as a min cost flow (OR-Tools' SimpleMinCostFlow) instead of an
+ * LP. Without the friendship rows the model is a transportation problem: every member supplies
+ * one unit, every team-role slot type (see TeamRoleSlots) takes as many units as it has columns,
+ * and a member has an arc to each slot they can take costing the negated objective coefficient.
+ * Flows are always integral, so no rows need patching afterwards. The result is expanded back to
+ * columns, so it has the same shape as the MPSolver results.
+ */
+public class TeamSorterMinCostFlowSolver extends TeamSorterSolver {
+
+    public TeamSorterMinCostFlowSolver(TeamSortingInput input) {
+        super(input, true);
+        ignoreFriendships = true;
+    }
+
+    @Override
+    public TeamSorterResult solve(TeamSortingLogger logger) {
+        if (!ignoreFriendships && input.numbFriendships() > 0) {
+            // the network can't keep friends together, so use the integral model for these
+            logger.log("    Friendships can't be expressed as a flow, solving the integral model instead");
+            return super.solve(logger);
+        }
+        Loader.loadNativeLibraries();
+
+        TeamRoleSlots slots = new TeamRoleSlots(input);
+        int[] preferenceMultipliers = createPreferenceMultipliers();
+        MinCostFlow flow = new MinCostFlow();
+        int[][] arcs = createNetwork(flow, slots, preferenceMultipliers);
+        logger.log(String.format("%dx%d Min cost flow: %d nodes, %d arcs",
+                input.numbRows(), slots.numbSlots(), flow.getNumNodes(), flow.getNumArcs()), 3);
+
+        logger.log("    Solving with MinCostFlow");
+        long start = System.nanoTime();
+        MinCostFlowBase.Status status = flow.solve();
+        long wallTime = (System.nanoTime() - start) / 1_000_000;
+        TeamSorterStatus resultStatus = toResultStatus(status);
+
+        if (resultStatus != TeamSorterStatus.OPTIMAL) {
+            throw new RuntimeException("No feasible solution found.");
+        }
+
+        double[][] slotValues = new double[arcs.length][slots.numbSlots()];
+        for (int m = 0; m < arcs.length; m++) {
+            for (int s = 0; s < arcs[m].length; s++) {
+                if (arcs[m][s] >= 0 && flow.getFlow(arcs[m][s]) > 0) slotValues[m][s] = 1;
+            }
+        }
+
+        TeamSorterResult result = createResult(null, null, slots.expand(slotValues), resultStatus, preferenceMultipliers);
+        // costs are the negated objective coefficients
+        result.setSolveStatistics(-flow.getOptimalCost(), wallTime, 0);
+        return result;
+    }
+
+    public static TeamSorterStatus toResultStatus(MinCostFlowBase.Status status) {
+        return switch (status) {
+            case OPTIMAL -> TeamSorterStatus.OPTIMAL;
+            case FEASIBLE -> TeamSorterStatus.FEASIBLE;
+            case INFEASIBLE, UNBALANCED -> TeamSorterStatus.INFEASIBLE;
+            case BAD_RESULT, BAD_COST_RANGE -> TeamSorterStatus.ABNORMAL;
+            default -> TeamSorterStatus.NOT_SOLVED;
+        };
+    }
+
+    // Members are nodes [0, numbMembers) with a supply of 1, slot s is node numbMembers + s with a
+    // demand of its capacity. Only the slots a member can take get an arc, as in the pruned LP.
+    // Returns the arc of each member and slot, -1 where there is none.
+    protected int[][] createNetwork(MinCostFlow flow, TeamRoleSlots slots, int[] preferenceMultipliers) {
+        int numbMembers = input.numbMembers();
+        int objAdder = getObjectiveAdder();
+        int[][] arcs = new int[numbMembers][slots.numbSlots()];
+        for (int m = 0; m < numbMembers; m++) {
+            Arrays.fill(arcs[m], -1);
+            int[] memberRoles = input.getMemberRoles(m);
+            Arrays.sort(memberRoles);
+            for (int s = 0; s < slots.numbSlots(); s++) {
+                int j = slots.getRepresentativeColumn(s);
+                if (!isColumnEligible(m, j, memberRoles)) continue;
+                long cost = -(long) getObjectiveCoefficient(m, j, objAdder, preferenceMultipliers);
+                arcs[m][s] = flow.addArcWithCapacityAndUnitCost(m, numbMembers + s, 1, cost);
+            }
+            flow.setNodeSupply(m, 1);
+        }
+        for (int s = 0; s < slots.numbSlots(); s++) {
+            flow.setNodeSupply(numbMembers + s, -slots.getCapacity(s));
+        }
+        return arcs;
+    }
+
+}
@@ -3,8 +3,6 @@ package pyerter.squirrel.tpp.core;
 import com.google.ortools.linearsolver.MPObjective;
 import com.google.ortools.linearsolver.MPSolver;
 import com.google.ortools.linearsolver.MPVariable;
-import pyerter.squirrel.tpp.friendship.Friendship;
-import pyerter.squirrel.tpp.friendship.FriendshipObjectiveValues;
 
 import java.util.*;
 
@@ -19,60 +17,76 @@ public class TeamSorterResult {
     protected MPSolver solver;
     protected MPObjective objective;
     protected MPVariable[][] vars;
+    protected double[][] solution;
     protected TeamSortingInput input;
     protected boolean detailedPrinting = false;
     protected MemberAssignment[] assignments;
-    protected Map<String, MemberAssignment> assignmentMap;
-    protected final MPSolver.ResultStatus status;
+    protected final TeamSorterStatus status;
     protected int[] preferenceMultipliers;
 
-    protected Map<String, Friendship> friendshipMap = new HashMap<>();
-    protected int friendCount = 0;
-    protected Map<Friendship, Integer> friendshipIndexMap = new HashMap<>();
-    protected Friendship[] friendships;
-    protected boolean calculatedFriendships = false;
-
     protected TeamSorterResult roundedResult = null;
 
-    public TeamSorterResult(MPSolver solver, MPObjective objective, MPVariable[][] vars, TeamSortingInput input, final MPSolver.ResultStatus status, int[] preferenceMultipliers, MemberAssignment[] assignments) {
+    protected boolean finalizedAssignments = false;
+    protected AssignmentScore assignmentScore = null;
+    protected int unmetRoleRequirements = -1;
+    protected volatile TeamSorterResultSnapshot snapshot = null;
+
+    // Used when there is no MPSolver behind the result, e.g. for CP-SAT solves
+    protected double solverObjectiveValue = Double.NaN;
+    protected long wallTime = -1;
+    protected long iterations = -1;
+
+    public TeamSorterResult(MPSolver solver, MPObjective objective, MPVariable[][] vars, TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers, MemberAssignment[] assignments) {
         this.solver = solver;
         this.objective = objective;
         this.vars = vars;
         this.input = input;
         this.assignments = assignments;
-        assignmentMap = new HashMap<>();
-        for (int i = 0; i < assignments.length; i++) {
-            assignmentMap.put(input.getMember(i).getName(), assignments[i]);
-        }
         this.status = status;
         this.preferenceMultipliers = preferenceMultipliers;
     }
 
-    public TeamSorterResult(MPSolver solver, MPObjective objective, MPVariable[][] vars, TeamSortingInput input, final MPSolver.ResultStatus status, int[] preferenceMultipliers) {
+    public TeamSorterResult(MPSolver solver, MPObjective objective, MPVariable[][] vars, TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers) {
         this.solver = solver;
         this.objective = objective;
         this.vars = vars;
         this.input = input;
         assignments = new MemberAssignment[input.numbRows()];
-        assignmentMap = new HashMap<>();
         for (int i = 0; i < assignments.length; i++) {
             assignments[i] = new MemberAssignment(input, i, vars[i], detailedPrinting);
-            assignmentMap.put(input.getMember(i).getName(), assignments[i]);
         }
         this.status = status;
         this.preferenceMultipliers = preferenceMultipliers;
     }
 
-    public TeamSorterResult(MPSolver solver, MPObjective objective, MPVariable[][] vars, TeamSortingInput input, final MPSolver.ResultStatus status, int[] preferenceMultipliers, TeamSorterResult roundedResult) {
+    public TeamSorterResult(MPSolver solver, MPObjective objective, double[][] solution, TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers, MemberAssignment[] assignments) {
+        this(solver, objective, (MPVariable[][]) null, input, status, preferenceMultipliers, assignments);
+        this.solution = solution;
+    }
+
+    // For models whose variables are not one per member and column, e.g. the aggregated
+    // formulation, with the solution already expanded to [member][column]
+    public TeamSorterResult(MPSolver solver, MPObjective objective, double[][] solution, TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers) {
+        this.solver = solver;
+        this.objective = objective;
+        this.solution = solution;
+        this.input = input;
+        assignments = new MemberAssignment[input.numbRows()];
+        for (int i = 0; i < assignments.length; i++) {
+            assignments[i] = new MemberAssignment(input, i, solution[i], detailedPrinting);
+        }
+        this.status = status;
+        this.preferenceMultipliers = preferenceMultipliers;
+    }
+
+    public TeamSorterResult(MPSolver solver, MPObjective objective, MPVariable[][] vars, TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers, TeamSorterResult roundedResult) {
         this.solver = solver;
         this.objective = objective;
         this.vars = vars;
         this.input = input;
         assignments = new MemberAssignment[input.numbRows()];
-        assignmentMap = new HashMap<>();
         for (int i = 0; i < assignments.length; i++) {
             assignments[i] = new MemberAssignment(input, i, vars[i], detailedPrinting);
-            assignmentMap.put(input.getMember(i).getName(), assignments[i]);
         }
         this.status = status;
         this.preferenceMultipliers = preferenceMultipliers;
@@ -88,7 +102,7 @@ public class TeamSorterResult {
     }
 
     public boolean isValidSolution() {
-        return status == MPSolver.ResultStatus.FEASIBLE || status == MPSolver.ResultStatus.OPTIMAL;
+        return status.hasSolution();
     }
 
     public String toPrintAssignments() {
@@ -103,134 +117,44 @@ public class TeamSorterResult {
     }
 
     public String toPrintFinalAssignments() {
-        if (!isValidSolution()) {
-            return "Solver could not find feasible solution.";
-        }
-        getObjectiveValue();
-        String out = "";
-        for (int i = 0; i < assignments.length; i++) {
-            out += assignments[i].toPrintFinalAssignment() + "\n";
-        }
-        return out.substring(0, out.length() - 1);
+        return getSnapshot().toPrintFinalAssignments();
     }
 
     public String toPrintFinalFriendshipAssignments() {
-        if (!isValidSolution()) {
-            return "Solver could not find feasible solution.";
-        }
-        calculateFriendships();
-        String out = "";
-        for (int i = 0; i < friendships.length; i++) {
-            String currentFriendship = String.format("Friendship %d: ", i);
-            for (int t = 0; t < input.numbTeams(); t++) {
-                LinkedList<String> membersInTeam = new LinkedList<>();
-                for (String member : friendships[i].getFriends()) {
-                    if (assignmentMap.get(member).getFinalTeamAssignment() == t) {
-                        membersInTeam.add(member);
-                    }
-                }
-                if (membersInTeam.size() > 0) {
-                    currentFriendship += String.format("Team %d members %s, ", t, Arrays.toString(membersInTeam.toArray(String[]::new)));
-                }
-            }
-            out += currentFriendship + "\n";
-        }
-        return out.substring(0, out.length() - 1);
+        return getSnapshot().toPrintFinalFriendshipAssignments();
     }
 
     public int[] getFinalPreferences() {
-        int[] preferences = new int[input.getNumbPreferences() + 1];
-        getObjectiveValue();
-        for (int i = 0; i < input.numbMembers(); i++) {
-            preferences[input.getMember(i).getPreference(assignments[i].getFinalTeamAssignmentName()) + 1]++;
-        }
-        return preferences;
+        return getSnapshot().getFinalPreferences();
     }
 
     public String toPrintFinalPreferences() {
-        if (!isValidSolution()) {
-            return "Solver could not find feasible solution.";
-        }
-        int[] preferences = getFinalPreferences();
-        String out = "Members with preferences:\n";
-        for (int i = 1; i <= input.getNumbPreferences() + 1; i++) {
-            int index = (i % (input.getNumbPreferences() + 1));
-            int prefNumber = index - 1;
-            out += String.format("    Preference (%s%d) %d: %d%n",
-                    index == 0 ? "" : "+",
-                    prefNumber == -1 ? 1 : preferenceMultipliers[prefNumber],
-                    prefNumber, preferences[index]);
-        }
-        return out.substring(0, out.length() - 1);
+        return getSnapshot().toPrintFinalPreferences();
     }
 
     public String toPrintFinalFriendshipObjective() {
-        if (!isValidSolution()) {
-            return "Solver could not find feasible solution.";
-        }
-        getObjectiveValue();
-        String out = "Final Friendship Objective: " + getFinalFriendshipObjectiveValue();
-        return out;
-    }
-
-    public void calculateFriendships() {
-        getObjectiveValue();
-        if (calculatedFriendships) return;
-
-        friendshipMap = new HashMap<>();
-        friendCount = 0;
-        friendshipIndexMap = new HashMap<>();
-        for (int i = 0; i < input.numbMembers(); i++) {
-            Optional<Friendship> friendship = input.tryGetFriendship(input.getMember(i).getName());
-            if (friendship.isPresent()) {
-                if (!friendshipIndexMap.containsKey(friendship.get())) {
-                    friendshipIndexMap.put(friendship.get(), friendCount);
-                    friendCount++;
-                }
-                friendshipMap.put(input.getMember(i).getName(), friendship.get());
-            } else {
-                Friendship singleFriendship = new Friendship(input.getMember(i).getName(), input.getMember(i).getName());
-                singleFriendship.initialize(input);
-                friendshipMap.put(input.getMember(i).getName(), singleFriendship);
-                friendshipIndexMap.put(singleFriendship, friendCount);
-                friendCount++;
-            }
-        }
-        friendships = new Friendship[friendCount];
-        for (Friendship f: friendshipMap.values()) {
-            friendships[friendshipIndexMap.get(f)] = f;
-        }
-        calculatedFriendships = true;
+        return getSnapshot().toPrintFinalFriendshipObjective();
     }
 
-    public float getFinalFriendshipObjectiveValue() {
-        getObjectiveValue();
-        calculateFriendships();
-
-        float totalObjective = 0;
-
-        for (int fIndex = 0; fIndex < friendships.length; fIndex++) {
-            Friendship f = friendships[fIndex];
-            String[] friends = f.getFriends();
-            int[] friendTeamCounts = new int[input.numbTeams()];
-            for (String friend : friends) {
-                friendTeamCounts[assignmentMap.get(friend).getFinalTeamAssignment()] += 1;
-            }
-            for (int t = 0; t < friendTeamCounts.length; t++) {
-                float currentObjective = ((float)friendTeamCounts[t]) / friends.length;
-                currentObjective *= currentObjective;
-                totalObjective += currentObjective;
-            }
+    /**
+     * The finalized result as read by the reports, built on the first call and shared after that.
+     * Safe to call from several threads, e.g. to write reports in parallel.
+     */
+    public TeamSorterResultSnapshot getSnapshot() {
+        TeamSorterResultSnapshot current = snapshot;
+        if (current != null) return current;
+        synchronized (this) {
+            if (snapshot == null) snapshot = new TeamSorterResultSnapshot(this);
+            return snapshot;
         }
+    }
 
-        return totalObjective;
+    public float getFinalFriendshipObjectiveValue() {
+        return (float) getAssignmentScore().getFriendshipValue();
     }
 
     public float getTheoreticalMaxFriendshipObjectiveValue() {
-        getObjectiveValue();
-        calculateFriendships();
-
-        return friendCount;
+        return getSnapshot().getTheoreticalMaxFriendshipObjectiveValue();
     }
 
     public float getTheoreticalMaxObjectiveValue() {
@@ -245,182 +169,130 @@ public class TeamSorterResult {
         return objective;
     }
 
+    public synchronized void setSolveStatistics(double solverObjectiveValue, long wallTime, long iterations) {
+        this.solverObjectiveValue = solverObjectiveValue;
+        this.wallTime = wallTime;
+        this.iterations = iterations;
+        snapshot = null;
+    }
+
+    // Objective value reported by the solver, before any rounding
+    public double getSolverObjectiveValue() {
+        return objective != null ? objective.value() : solverObjectiveValue;
+    }
+
+    // Milliseconds
+    public long getWallTime() {
+        return solver != null ? solver.wallTime() : wallTime;
+    }
+
+    public long getIterations() {
+        return solver != null ? solver.iterations() : iterations;
+    }
+
+    // null when the result was built from a solution instead of the per-column variables
     public MPVariable[][] getVars() {
         return vars;
     }
 
+    // Solution values indexed [member][column]
+    public double[][] getSolution() {
+        if (solution == null) {
+            solution = Arrays.stream(assignments).map(MemberAssignment::getValues).toArray(double[][]::new);
+        }
+        return solution;
+    }
+
     public TeamSortingInput getInput() {
         return input;
     }
 
-    public String toPrintStats() {
-        String out = "";
-        out += "Status: " + status + "\n";
-        if (status != MPSolver.ResultStatus.OPTIMAL) {
-            out += "The problem does not have an optimal solution!\n";
-            if (status == MPSolver.ResultStatus.FEASIBLE) {
-                out += "A potentially suboptimal solution was found\n";
-            } else {
-                out += "The solver could not solve the problem.";
-                return out;
-            }
-        }
+    // Copies, so setting a final team on them leaves this result and its scores as they are
+    public synchronized MemberAssignment[] getAssignments() {
+        return Arrays.stream(assignments).map(MemberAssignment::new).toArray(MemberAssignment[]::new);
+    }
 
-        out += "Objective value = " + objective.value() + "\n";
-        out += "Assigned objective value = " + getObjectiveValue() + "\n";
+    public TeamSorterStatus getStatus() {
+        return status;
+    }
 
-        out += "Advanced usage:\n";
-        out += "    Problem solved in " + solver.wallTime() + " milliseconds\n";
-        out += "    Problem solved in " + solver.iterations() + " iterations";
-        return out;
+    public int[] getPreferenceMultipliers() {
+        return preferenceMultipliers;
+    }
+
+    public String toPrintStats() {
+        return getSnapshot().toPrintStats();
     }
 
     public double getObjectiveValue() {
-        double obj = 0;
+        return getAssignmentScore().getPreferenceValue();
+    }
+
+    // Scores of the final assignments, built once they are all set. Kept to the package, since
+    // moving a member in it would change what this result reports.
+    protected synchronized AssignmentScore getAssignmentScore() {
+        finalizeAssignments();
+        if (assignmentScore == null) assignmentScore = AssignmentScore.of(input, preferenceMultipliers, assignments);
+        return assignmentScore;
+    }
+
+    /**
+     * Seats of the team-role requirements that no member holds: a team needs as many members
+     * assigned to it in the role, and able to fill it, as the role requires.
+     * @return 0 when every requirement is met
+     */
+    public synchronized int countUnmetRoleRequirements() {
+        finalizeAssignments();
+        if (unmetRoleRequirements >= 0) return unmetRoleRequirements;
+        int[][] filled = new int[input.numbTeams()][input.numbRoles()];
+        for (int m = 0; m < assignments.length; m++) {
+            int t = assignments[m].getFinalTeamAssignment();
+            int r = assignments[m].getFinalTeamAssignmentRole();
+            if (t < 0 || r < 0) continue;
+            for (int memberRole : input.getMemberRoles(m)) {
+                if (memberRole == r) {
+                    filled[t][r]++;
+                    break;
+                }
+            }
+        }
+        int unmet = 0;
+        for (int t = 0; t < filled.length; t++) {
+            for (int r = 0; r < filled[t].length; r++) unmet += Math.max(0, input.getTeamRoleRequiremenet(t, r) - filled[t][r]);
+        }
+        unmetRoleRequirements = unmet;
+        return unmet;
+    }
+
+    // Gives every member without a final team one: the team of their column, or their first
+    // preference for wild columns. Locked like getSnapshot(), and only marked done once every
+    // member has been given a team, so no thread scores a half finalized result.
+    public synchronized void finalizeAssignments() {
+        if (finalizedAssignments) return;
         boolean[] assigned = new boolean[input.numbMembers()];
         for (int i = 0; i < assigned.length; i++) {
             if (assigned[i] || assignments[i].getFinalTeamAssignment() >= 0) {
-                obj += assignments[i].getFinalAssignmentObjectiveValue(preferenceMultipliers);
                 assigned[i] = true;
                 continue;
             }
             int currentAssignedTeam = assignments[i].getAssignedTeam(input);
             if (currentAssignedTeam >= 0) {
                 assignments[i].setFinalTeamAssignment(currentAssignedTeam, input);
-                obj += assignments[i].getFinalAssignmentObjectiveValue(preferenceMultipliers);
                 assigned[i] = true;
                 continue;
             }
-            Friendship friendship = input.getNameToFriends().get(input.getMember(i).getName());
-            if (friendship != null && false) {
-                Member[] friends = friendship.getMembers();
-                for (int f = 0; f < friends.length; f++) {
-                    int currentAssignment = assignmentMap.get(friends[f].getName()).getAssignedTeam(input);
-                    if (currentAssignment >= 0) {
-                        for (int f2 = 0; f2 < friends.length; f2++) {
-                            int mIndex = input.getMemberIndex(friends[f2]);
-                            assignments[mIndex].setFinalTeamAssignment(currentAssignment, input);
-                            assigned[mIndex] = true;
-                        }
-                        break;
-                    }
-                }
-                if (assigned[i]) {
-                    obj += assignments[i].getFinalAssignmentObjectiveValue(preferenceMultipliers);
-                    continue;
-                }
-                int[] friendTeamVotes = new int[input.numbTeams()];
-                int max = -1;
-                for (int f = 0; f < friends.length; f++) {
-                    int desiredTeam = input.getTeamMap().get(friends[f].getPreferredTeams()[0]);
-                    friendTeamVotes[desiredTeam]++;
-                    if (max == -1 || friendTeamVotes[desiredTeam] > friendTeamVotes[max]) {
-                        max = desiredTeam;
-                    }
-                }
-                for (int f = 0; f < friends.length; f++) {
-                    int mIndex = input.getMemberIndex(friends[f]);
-                    assignments[mIndex].setFinalTeamAssignment(max, input);
-                    assigned[mIndex] = true;
-                }
-                obj += assignments[i].getFinalAssignmentObjectiveValue(preferenceMultipliers);
-                continue;
-            } else {
-                try {
-                    assignments[i].setFinalTeamAssignment(input.getTeamMap().get(input.getMember(i).getPreferredTeams()[0]), input);
-                    obj += assignments[i].getFinalAssignmentObjectiveValue(preferenceMultipliers);
-                    assigned[i] = true;
-                } catch (Exception e) {
-                    System.out.printf("Error while assigning member %s to their first preference: %s", input.getMember(i).getName(), e.getMessage());
-                }
+            try {
+                assignments[i].setFinalTeamAssignment(input.getTeamMap().get(input.getMember(i).getPreferredTeams()[0]), input);
+                assigned[i] = true;
+            } catch (Exception e) {
+                System.out.printf("Error while assigning member %s to their first preference: %s", input.getMember(i).getName(), e.getMessage());
             }
         }
-        return obj;
+        finalizedAssignments = true;
     }
 
     public List<String[]> getCsvPrint() {
-        if (!isValidSolution()) {
-            return null;
-        }
-
-        // <preferences>, <preference multipliers>,
-        // objective function, friendship objective function, max obj. func., max friendship obj. func.
-
-        int prefColumns = input.getNumbPreferences() + 1;
-        String[] headers = new String[prefColumns * 2 + 11];
-        String[] values = new String[headers.length];
-        for (int i = 0; i < preferenceMultipliers.length; i++) {
-            headers[i] = "Preference " + i;
-        }
-
-        int[] preferences = getFinalPreferences();
-        for (int i = 1; i <= input.getNumbPreferences() + 1; i++) {
-            int index = (i % (input.getNumbPreferences() + 1));
-            int prefNumber = index - 1;
-            headers[index] = index == 0 ? "Not Preference" : "Preference " + index;
-            headers[index + prefColumns] = index == 0 ? "P None Value" : "P " + index + " Value";
-            values[index] = "" + preferences[index];
-            values[index + prefColumns] = "" + (index == 0 ? 1 : preferenceMultipliers[prefNumber]);
-        }
-        int index = prefColumns * 2;
-        headers[index] = "Objective";
-        headers[index + 1] = "Friendship Objective";
-        headers[index + 2] = "Max Objective";
-        headers[index + 3] = "Max Friendship Objective";
-        headers[index + 4] = "q";
-        headers[index + 5] = "M";
-        headers[index + 6] = "Friendships >1";
-        headers[index + 7] = "Min Friend Size";
-        headers[index + 8] = "Max Friend Size";
-        headers[index + 9] = "Average Friend Size";
-        headers[index + 10] = "No Friends";
-        values[index] = "" + getObjectiveValue();
-        values[index + 1] = "" + getFinalFriendshipObjectiveValue();
-        values[index + 2] = "" + getTheoreticalMaxObjectiveValue();
-        values[index + 3] = "" + getTheoreticalMaxFriendshipObjectiveValue();
-        values[index + 4] = "" + input.getO();
-        values[index + 5] = "" + input.numbMembers();
-        values[index + 6] = "" + input.numbFriendships();
-
-        int[] fSizes = new int[input.numbFriendships()];
-        for (int i = 0; i < input.numbFriendships(); i++) {
-            fSizes[i] = input.getFriendships()[i].size();
-        }
-        float total = 0;
-        int min = fSizes.length > 0 ? fSizes[0] : 1;
-        int max = fSizes.length > 0 ? fSizes[0] : 1;
-        for (int i : fSizes) {
-            total += i;
-            if (i < min) min = i;
-            if (i > max) max = i;
-        }
-        float average = total / (float)fSizes.length;
-        average = ((int)(average * 10000) / 10000f);
-
-        values[index + 7] = "" + min;
-        values[index + 8] = "" + max;
-        values[index + 9] = "" + average;
-        values[index + 10] = "" + (input.numbMembers() - total);
-
-
-        List<String[]> list = new ArrayList<>();
-        list.add(headers);
-        list.add(values);
-        list.add(new String[0]); // spacer row
-
-        String[] assignmentHeaders = new String[]{"Member", "Team", "Role", "Preference"};
-        list.add(assignmentHeaders);
-        for (int i = 0; i < assignments.length; i++) {
-            // += assignments[i].toPrintFinalAssignment() + "\n";
-            String[] memberRow = new String[]{assignments[i].getMember().getName(),
-                    assignments[i].getFinalTeamAssignmentName(),
-                    assignments[i].getFinalTeamAssignmentRoleName(),
-                    "" + (input.getMember(i).getPreference(assignments[i].getFinalTeamAssignmentName()) + 1)
-            };
-            list.add(memberRow);
-        }
-
-        return list;
+        return getSnapshot().getCsvPrint();
     }
 
 }
@@ -0,0 +1,386 @@
+package pyerter.squirrel.tpp.core;
+
+import pyerter.squirrel.tpp.friendship.Friendship;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Everything the reports of a TeamSorterResult print, read once from the finalized result: each
+ * member's final team, role and preference, the preference counts, both objective values, the
+ * friendship splits and the solver statistics. Fields are final and arrays are copied on the way
+ * out, so a snapshot can be handed to several report writers at once.
+ */
+public class TeamSorterResultSnapshot {
+
+    public static final String NO_SOLUTION = "Solver could not find feasible solution.";
+
+    protected final TeamSorterStatus status;
+    protected final boolean validSolution;
+    protected final int[] preferenceMultipliers;
+    protected final int numbPreferences;
+    protected final int numbTeams;
+
+    protected final String[] memberNames;
+    protected final int[] teams;
+    protected final int[] roles;
+    protected final String[] teamNames;
+    protected final String[] roleNames;
+    protected final int[] finalPreferences;
+    protected final int[] preferenceCounts;
+
+    // members of each group on each team, in the order the friendship lists them, indexed [group][team]
+    protected final String[][][] friendshipSplits;
+
+    protected final double objectiveValue;
+    protected final float friendshipObjectiveValue;
+    protected final float theoreticalMaxObjectiveValue;
+    protected final float theoreticalMaxFriendshipObjectiveValue;
+    protected final int unmetRoleRequirements;
+    protected final double solverObjectiveValue;
+    protected final long wallTime;
+    protected final long iterations;
+
+    // input statistics for the csv
+    protected final int numbExplicitTeamRoles;
+    protected final int numbMembers;
+    protected final int[] friendshipSizes;
+
+    public TeamSorterResultSnapshot(TeamSorterResult result) {
+        TeamSortingInput input = result.getInput();
+        status = result.getStatus();
+        validSolution = result.isValidSolution();
+        preferenceMultipliers = result.getPreferenceMultipliers().clone();
+        numbPreferences = input.getNumbPreferences();
+        numbTeams = input.numbTeams();
+        numbExplicitTeamRoles = input.getO();
+        numbMembers = input.numbMembers();
+        friendshipSizes = new int[input.numbFriendships()];
+        for (int i = 0; i < friendshipSizes.length; i++) {
+            friendshipSizes[i] = input.getFriendships()[i].size();
+        }
+        theoreticalMaxObjectiveValue = result.getTheoreticalMaxObjectiveValue();
+
+        if (!validSolution) {
+            // the variables hold no values to finalize
+            memberNames = new String[0];
+            teams = new int[0];
+            roles = new int[0];
+            teamNames = new String[0];
+            roleNames = new String[0];
+            finalPreferences = new int[0];
+            preferenceCounts = new int[numbPreferences + 1];
+            friendshipSplits = new String[0][][];
+            objectiveValue = 0;
+            friendshipObjectiveValue = 0;
+            theoreticalMaxFriendshipObjectiveValue = 0;
+            unmetRoleRequirements = 0;
+            solverObjectiveValue = Double.NaN;
+            wallTime = -1;
+            iterations = -1;
+            return;
+        }
+
+        AssignmentScore score = result.getAssignmentScore();
+        MemberAssignment[] assignments = result.getAssignments();
+        memberNames = new String[assignments.length];
+        teams = new int[assignments.length];
+        roles = new int[assignments.length];
+        teamNames = new String[assignments.length];
+        roleNames = new String[assignments.length];
+        finalPreferences = new int[assignments.length];
+        preferenceCounts = new int[numbPreferences + 1];
+        for (int m = 0; m < assignments.length; m++) {
+            memberNames[m] = assignments[m].getMember().getName();
+            teams[m] = assignments[m].getFinalTeamAssignment();
+            roles[m] = assignments[m].getFinalTeamAssignmentRole();
+            teamNames[m] = assignments[m].getFinalTeamAssignmentName();
+            roleNames[m] = assignments[m].getFinalTeamAssignmentRoleName();
+            finalPreferences[m] = assignments[m].getFinalPreference();
+            preferenceCounts[finalPreferences[m] + 1]++;
+        }
+
+        friendshipSplits = new String[score.numbGroups()][numbTeams][];
+        for (int g = 0; g < friendshipSplits.length; g++) {
+            int[] members = listedMembers(input, score.getGroupMembers(g), memberNames);
+            for (int t = 0; t < numbTeams; t++) {
+                String[] names = new String[score.getGroupCount(g, t)];
+                int i = 0;
+                for (int m : members) {
+                    if (teams[m] == t) names[i++] = memberNames[m];
+                }
+                friendshipSplits[g][t] = names;
+            }
+        }
+
+        objectiveValue = score.getPreferenceValue();
+        friendshipObjectiveValue = (float) score.getFriendshipValue();
+        // every group, singles included, can be fully together
+        theoreticalMaxFriendshipObjectiveValue = score.numbGroups();
+        unmetRoleRequirements = result.countUnmetRoleRequirements();
+        solverObjectiveValue = result.getSolverObjectiveValue();
+        wallTime = result.getWallTime();
+        iterations = result.getIterations();
+    }
+
+    // Rows of the group's members in the order its friendship lists the friends, the group is sorted by row
+    protected static int[] listedMembers(TeamSortingInput input, int[] group, String[] memberNames) {
+        Optional<Friendship> friendship = input.tryGetFriendship(memberNames[group[0]]);
+        if (friendship.isEmpty()) return group;
+        int[] members = new int[group.length];
+        int i = 0;
+        for (String friend : friendship.get().getFriends()) {
+            int m = input.findMemberIndex(friend);
+            if (m >= 0 && Arrays.binarySearch(group, m) >= 0 && !contains(members, i, m)) members[i++] = m;
+        }
+        return members;
+    }
+
+    protected static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) return true;
+        }
+        return false;
+    }
+
+    public TeamSorterStatus getStatus() {
+        return status;
+    }
+
+    public boolean isValidSolution() {
+        return validSolution;
+    }
+
+    public int numbMembers() {
+        return teams.length;
+    }
+
+    public String getMemberName(int m) {
+        return memberNames[m];
+    }
+
+    public int getTeam(int m) {
+        return teams[m];
+    }
+
+    public int getRole(int m) {
+        return roles[m];
+    }
+
+    public int[] getTeams() {
+        return teams.clone();
+    }
+
+    public int[] getRoles() {
+        return roles.clone();
+    }
+
+    // Rank of the member's final team in their preferences, -1 if not preferred
+    public int getFinalPreference(int m) {
+        return finalPreferences[m];
+    }
+
+    // Members per final preference, index 0 for members not on a preferred team
+    public int[] getFinalPreferences() {
+        return preferenceCounts.clone();
+    }
+
+    public double getObjectiveValue() {
+        return objectiveValue;
+    }
+
+    public float getFinalFriendshipObjectiveValue() {
+        return friendshipObjectiveValue;
+    }
+
+    public float getTheoreticalMaxObjectiveValue() {
+        return theoreticalMaxObjectiveValue;
+    }
+
+    public float getTheoreticalMaxFriendshipObjectiveValue() {
+        return theoreticalMaxFriendshipObjectiveValue;
+    }
+
+    // Team-role requirement seats no member holds, see TeamSorterResult.countUnmetRoleRequirements()
+    public int getUnmetRoleRequirements() {
+        return unmetRoleRequirements;
+    }
+
+    public double getSolverObjectiveValue() {
+        return solverObjectiveValue;
+    }
+
+    // Milliseconds
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    public long getIterations() {
+        return iterations;
+    }
+
+    public int numbFriendshipGroups() {
+        return friendshipSplits.length;
+    }
+
+    // Names of the group's members on the team
+    public String[] getFriendshipSplit(int g, int t) {
+        return friendshipSplits[g][t].clone();
+    }
+
+    public String toPrintFinalAssignments() {
+        if (!validSolution) return NO_SOLUTION;
+        StringBuilder out = new StringBuilder();
+        for (int m = 0; m < teams.length; m++) {
+            if (m > 0) out.append('\n');
+            if (teams[m] >= 0) {
+                out.append(String.format("Member (%d) %s assigned to %s as %s: Preference %d",
+                        m, memberNames[m], teamNames[m], roleNames[m], finalPreferences[m]));
+            } else {
+                out.append("No final assignment set yet.");
+            }
+        }
+        return out.toString();
+    }
+
+    public String toPrintFinalFriendshipAssignments() {
+        if (!validSolution) return NO_SOLUTION;
+        StringBuilder out = new StringBuilder();
+        for (int g = 0; g < friendshipSplits.length; g++) {
+            if (g > 0) out.append('\n');
+            out.append(String.format("Friendship %d: ", g));
+            for (int t = 0; t < numbTeams; t++) {
+                if (friendshipSplits[g][t].length > 0) {
+                    out.append(String.format("Team %d members %s, ", t, Arrays.toString(friendshipSplits[g][t])));
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    public String toPrintFinalPreferences() {
+        if (!validSolution) return NO_SOLUTION;
+        String out = "Members with preferences:\n";
+        for (int i = 1; i <= numbPreferences + 1; i++) {
+            int index = (i % (numbPreferences + 1));
+            int prefNumber = index - 1;
+            out += String.format("    Preference (%s%d) %d: %d%n",
+                    index == 0 ? "" : "+",
+                    prefNumber == -1 ? 1 : preferenceMultipliers[prefNumber],
+                    prefNumber, preferenceCounts[index]);
+        }
+        return out.substring(0, out.length() - 1);
+    }
+
+    public String toPrintFinalFriendshipObjective() {
+        if (!validSolution) return NO_SOLUTION;
+        return "Final Friendship Objective: " + friendshipObjectiveValue;
+    }
+
+    public String toPrintStats() {
+        String out = "";
+        out += "Status: " + status + "\n";
+        if (status != TeamSorterStatus.OPTIMAL) {
+            out += "The problem does not have an optimal solution!\n";
+            if (status == TeamSorterStatus.FEASIBLE) {
+                out += "A potentially suboptimal solution was found\n";
+            } else {
+                out += "The solver could not solve the problem.";
+                return out;
+            }
+        }
+
+        out += "Objective value = " + solverObjectiveValue + "\n";
+        out += "Assigned objective value = " + objectiveValue + "\n";
+        if (unmetRoleRequirements > 0) {
+            out += "WARNING: " + unmetRoleRequirements + " team-role requirement seats are not filled!\n";
+        }
+
+        out += "Advanced usage:\n";
+        out += "    Problem solved in " + wallTime + " milliseconds\n";
+        out += "    Problem solved in " + iterations + " iterations";
+        return out;
+    }
+
+    // Rows for CsvResultWriter, a new list on every call
+    public List<String[]> getCsvPrint() {
+        if (!validSolution) {
+            return null;
+        }
+
+        // <preferences>, <preference multipliers>,
+        // objective function, friendship objective function, max obj. func., max friendship obj. func.
+
+        int prefColumns = numbPreferences + 1;
+        String[] headers = new String[prefColumns * 2 + 11];
+        String[] values = new String[headers.length];
+        for (int i = 0; i < preferenceMultipliers.length; i++) {
+            headers[i] = "Preference " + i;
+        }
+
+        for (int i = 1; i <= numbPreferences + 1; i++) {
+            int index = (i % (numbPreferences + 1));
+            int prefNumber = index - 1;
+            headers[index] = index == 0 ? "Not Preference" : "Preference " + index;
+            headers[index + prefColumns] = index == 0 ? "P None Value" : "P " + index + " Value";
+            values[index] = "" + preferenceCounts[index];
+            values[index + prefColumns] = "" + (index == 0 ? 1 : preferenceMultipliers[prefNumber]);
+        }
+        int index = prefColumns * 2;
+        headers[index] = "Objective";
+        headers[index + 1] = "Friendship Objective";
+        headers[index + 2] = "Max Objective";
+        headers[index + 3] = "Max Friendship Objective";
+        headers[index + 4] = "q";
+        headers[index + 5] = "M";
+        headers[index + 6] = "Friendships >1";
+        headers[index + 7] = "Min Friend Size";
+        headers[index + 8] = "Max Friend Size";
+        headers[index + 9] = "Average Friend Size";
+        headers[index + 10] = "No Friends";
+        values[index] = "" + objectiveValue;
+        values[index + 1] = "" + friendshipObjectiveValue;
+        values[index + 2] = "" + theoreticalMaxObjectiveValue;
+        values[index + 3] = "" + theoreticalMaxFriendshipObjectiveValue;
+        values[index + 4] = "" + numbExplicitTeamRoles;
+        values[index + 5] = "" + numbMembers;
+        values[index + 6] = "" + friendshipSizes.length;
+
+        float total = 0;
+        int min = friendshipSizes.length > 0 ? friendshipSizes[0] : 1;
+        int max = friendshipSizes.length > 0 ? friendshipSizes[0] : 1;
+        for (int i : friendshipSizes) {
+            total += i;
+            if (i < min) min = i;
+            if (i > max) max = i;
+        }
+        float average = total / (float) friendshipSizes.length;
+        average = ((int) (average * 10000) / 10000f);
+
+        values[index + 7] = "" + min;
+        values[index + 8] = "" + max;
+        values[index + 9] = "" + average;
+        values[index + 10] = "" + (numbMembers - total);
+
+
+        List<String[]> list = new ArrayList<>();
+        list.add(headers);
+        list.add(values);
+        list.add(new String[0]); // spacer row
+
+        String[] assignmentHeaders = new String[]{"Member", "Team", "Role", "Preference"};
+        list.add(assignmentHeaders);
+        for (int m = 0; m < teams.length; m++) {
+            String[] memberRow = new String[]{memberNames[m], teamNames[m], roleNames[m], "" + (finalPreferences[m] + 1)};
+            list.add(memberRow);
+        }
+
+        return list;
+    }
+
+}
@@ -0,0 +1,151 @@
+package pyerter.squirrel.tpp.core;
+
+import com.google.ortools.Loader;
+import com.google.ortools.linearsolver.MPConstraint;
+import com.google.ortools.linearsolver.MPObjective;
+import com.google.ortools.linearsolver.MPSolver;
+import com.google.ortools.linearsolver.MPSolverParameters;
+import com.google.ortools.linearsolver.MPVariable;
+import pyerter.squirrel.tpp.TeamSortingLogger;
+
+import java.util.Arrays;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Keeps one model alive between solves so members can change their preferences or roles
+ * and the model is re-optimized from the previous basis instead of being rebuilt.
+ *
+ * GLOP only reuses its basis when the constraint matrix is unchanged, so the member-specific
+ * parts of the model are not stored as matrix coefficients: every row sum covers all columns,
+ * and columns a member cannot be placed in (constraint 2's non-preferred teams and constraint 3's
+ * roles) get an upper bound of 0 instead. Updating a member only rewrites their bounds and
+ * objective coefficients.
+ */
+public class TeamSorterSession {
+
+    protected TeamSorterSolver sorter;
+    protected TeamSortingInput input;
+    protected MPSolver solver;
+    protected MPSolverParameters parameters;
+    protected MPVariable[][] vars;
+    protected MPObjective objective;
+    protected int[] preferenceMultipliers;
+    protected boolean[] changedMembers;
+    protected int numbSolves = 0;
+
+    public TeamSorterSession(TeamSorterSolver sorter) {
+        this.sorter = sorter;
+        this.input = sorter.getInput();
+        this.changedMembers = new boolean[input.numbRows()];
+    }
+
+    public TeamSortingInput getInput() {
+        return input;
+    }
+
+    public boolean isBuilt() {
+        return solver != null;
+    }
+
+    public int getNumbSolves() {
+        return numbSolves;
+    }
+
+    protected boolean build(TeamSortingLogger logger) {
+        Loader.loadNativeLibraries();
+        solver = sorter.createSolver(logger);
+        if (solver == null) {
+            return false;
+        }
+        parameters = sorter.createIncrementalParameters();
+
+        // every cell gets a variable, eligibility is expressed through bounds instead of pruning
+        vars = sorter.createVariables(solver, input.numbAugmentedColumns());
+        sorter.createConstraint1TeamRoleColumnSums(solver, vars);
+        createMemberRowSums();
+        sorter.createConstraint4TeamSizeRequirements(solver, vars);
+        sorter.createConstraint5FriendshipRequirements(solver, vars);
+        for (int m = 0; m < vars.length; m++) {
+            setMemberBounds(m);
+        }
+        preferenceMultipliers = sorter.createPreferenceMultipliers();
+        objective = sorter.createObjectiveFunction(logger, solver, vars, preferenceMultipliers);
+        objective.setMaximization();
+        logger.log(String.format("Built session model with %d variables", input.numbRows() * input.numbAugmentedColumns()), 3);
+        return true;
+    }
+
+    protected MPConstraint[] createMemberRowSums() {
+        MPConstraint[] constraints = new MPConstraint[vars.length];
+        for (int m = 0; m < vars.length; m++) {
+            constraints[m] = sorter.makeConstraint(solver, 1, 1, "rowsummember%drow%d", m, m);
+            for (int j = 0; j < vars[m].length; j++) {
+                constraints[m].setCoefficient(vars[m][j], 1);
+            }
+        }
+        return constraints;
+    }
+
+    protected void setMemberBounds(int m) {
+        int[] memberRoles = input.getMemberRoles(m);
+        Arrays.sort(memberRoles);
+        for (int j = 0; j < vars[m].length; j++) {
+            vars[m][j].setUb(sorter.isColumnEligible(m, j, memberRoles) ? 1 : 0);
+        }
+    }
+
+    // Replaces a member (matched by name) and marks their row to be rewritten before the next solve
+    public void updateMember(Member member) {
+        markChanged(input.replaceMember(member));
+    }
+
+    // Marks rows whose members were changed directly on the input
+    public void markChanged(int ... members) {
+        for (int m : members) {
+            changedMembers[m] = true;
+        }
+    }
+
+    protected int applyChanges() {
+        int objAdder = sorter.getObjectiveAdder();
+        int updated = 0;
+        for (int m = 0; m < changedMembers.length; m++) {
+            if (!changedMembers[m]) continue;
+            setMemberBounds(m);
+            sorter.setMemberObjectiveCoefficients(objective, vars, m, objAdder, preferenceMultipliers);
+            changedMembers[m] = false;
+            updated++;
+        }
+        return updated;
+    }
+
+    public TeamSorterResult solve(TeamSortingLogger logger) {
+        if (!isBuilt()) {
+            if (!build(logger)) return null;
+        } else {
+            int updated = applyChanges();
+            logger.log(String.format("Updated %d member rows before re-solving", updated), 3);
+        }
+
+        logger.log("    Solving with " + solver.solverVersion());
+        final MPSolver.ResultStatus resultStatus = solver.solve(parameters);
+        numbSolves++;
+
+        if (resultStatus != MPSolver.ResultStatus.FEASIBLE && resultStatus != MPSolver.ResultStatus.OPTIMAL) {
+            throw new RuntimeException("No feasible solution found.");
+        }
+
+        return sorter.createResult(solver, objective, vars, TeamSorterStatus.of(resultStatus), preferenceMultipliers);
+    }
+
+    // Releases the native model; the next solve rebuilds it
+    public void close() {
+        if (solver != null) {
+            solver.delete();
+            solver = null;
+        }
+    }
+
+}
@@ -5,13 +5,23 @@ import com.google.ortools.init.OrToolsVersion;
 import com.google.ortools.linearsolver.MPConstraint;
 import com.google.ortools.linearsolver.MPObjective;
 import com.google.ortools.linearsolver.MPSolver;
+import com.google.ortools.linearsolver.MPSolverParameters;
 import com.google.ortools.linearsolver.MPVariable;
 import pyerter.squirrel.tpp.TeamSortingLogger;
+import pyerter.squirrel.tpp.friendship.FriendGroups;
 import pyerter.squirrel.tpp.friendship.Friendship;
+import pyerter.squirrel.tpp.friendship.FriendshipLocalSearch;
+import pyerter.squirrel.tpp.friendship.FriendshipRoundingEnsemble;
 import pyerter.squirrel.tpp.friendship.TeamSorterFriendshipRounding;
 import pyerter.squirrel.tpp.friendship.TeamSorterFriendshipRoundingConstrained;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
 
 /**
  * Author: Porter Squires
@@ -23,6 +33,8 @@ public class TeamSorterSolver {
 
     public static final double INFINITY = Double.POSITIVE_INFINITY;
     public static final double NEGATIVE_INFINITY = Double.NEGATIVE_INFINITY;
+    // Role seat rows of a team past which friend groups are not contracted, see getHallRoleSets
+    public static final int MAX_HALL_ROWS = 1024;
 
     protected TeamSortingInput input;
 
@@ -32,6 +44,15 @@ public class TeamSorterSolver {
     protected boolean useHardPreferenceObjectiveFunction = false;
     protected boolean ignoreFriendships = false;
     protected boolean roundFriendships = false;
+    protected boolean aggregateColumns = false;
+    protected boolean pruneVariables = true;
+    protected boolean nameConstraints = true;
+    protected boolean contractFriendships = false;
+    protected boolean lazyFriendships = false;
+    protected boolean softFriendships = false;
+    protected double friendshipWeight = 0.5;
+    protected int numbRoundings = 1;
+    protected long localSearchMillis = 0;
 
     public TeamSorterSolver(TeamSortingInput input) {
         this(input, false);
@@ -78,6 +99,96 @@ public class TeamSorterSolver {
         this.roundFriendships = roundFriendships;
     }
 
+    public boolean isAggregateColumns() {
+        return aggregateColumns;
+    }
+
+    // Use one variable per member and team-role slot type instead of one per member and column
+    public void setAggregateColumns(boolean aggregateColumns) {
+        this.aggregateColumns = aggregateColumns;
+    }
+
+    public boolean isPruneVariables() {
+        return pruneVariables;
+    }
+
+    // Skip creating variables for cells a member can never take (see isColumnEligible), instead of
+    // creating them and forcing them to 0 with the row sum and role capability constraints
+    public void setPruneVariables(boolean pruneVariables) {
+        this.pruneVariables = pruneVariables;
+    }
+
+    public boolean isNameConstraints() {
+        return nameConstraints;
+    }
+
+    // Constraint names only show up when the model is exported or printed, so turning them off
+    // saves formatting a string for every constraint when nobody will read them
+    public void setNameConstraints(boolean nameConstraints) {
+        this.nameConstraints = nameConstraints;
+    }
+
+    public boolean isContractFriendships() {
+        return contractFriendships;
+    }
+
+    // Place each friend group as a single row instead of adding the friendship constraints, and
+    // restore the members' seats once every group has a team (see solveContracted)
+    public void setContractFriendships(boolean contractFriendships) {
+        this.contractFriendships = contractFriendships;
+    }
+
+    public boolean isLazyFriendships() {
+        return lazyFriendships;
+    }
+
+    // Start without friendship constraints and add them only for the friendships the solution
+    // splits, re-solving from the previous basis until none are split. Only used for the column model.
+    public void setLazyFriendships(boolean lazyFriendships) {
+        this.lazyFriendships = lazyFriendships;
+    }
+
+    public boolean isSoftFriendships() {
+        return softFriendships;
+    }
+
+    // Reward friends for being on the same team in the objective instead of requiring it, so the
+    // model stays feasible and preferences are traded against co-location in one solve.
+    // Only used for the column model, and takes the place of lazy friendships.
+    public void setSoftFriendships(boolean softFriendships) {
+        this.softFriendships = softFriendships;
+    }
+
+    public double getFriendshipWeight() {
+        return friendshipWeight;
+    }
+
+    // Reward per friend of a friendship that is entirely on one team, as a fraction of what a
+    // member's first choice is worth
+    public void setFriendshipWeight(double friendshipWeight) {
+        this.friendshipWeight = friendshipWeight;
+    }
+
+    public int getNumbRoundings() {
+        return numbRoundings;
+    }
+
+    // Round friendships this many times in parallel with shuffled tie-breaks and keep the best,
+    // see FriendshipRoundingEnsemble. Only used with roundFriendships.
+    public void setNumbRoundings(int numbRoundings) {
+        this.numbRoundings = Math.max(1, numbRoundings);
+    }
+
+    public long getLocalSearchMillis() {
+        return localSearchMillis;
+    }
+
+    // Improve the rounded assignments with member swaps and friend group moves for up to this
+    // many milliseconds, see FriendshipLocalSearch. 0 turns it off. Only used with roundFriendships.
+    public void setLocalSearchMillis(long localSearchMillis) {
+        this.localSearchMillis = localSearchMillis;
+    }
+
     public TeamSorterResult solve(TeamSortingLogger logger) {
         Loader.loadNativeLibraries();
 
@@ -86,13 +197,25 @@ public class TeamSorterSolver {
         logger.log("    Google OR-Tools version: " + OrToolsVersion.getVersionString());
 
         // Create the linear solver with the GLOP backend.
-        String solverID = useIntegralVariables ? "SCIP" : "GLOP";
-        MPSolver solver = MPSolver.createSolver(solverID);
+        MPSolver solver = createSolver(logger);
         if (solver == null) {
-            logger.log(String.format("    Could not create solver %s", solverID));
             return null;
         }
 
+        if (contractFriendships && !ignoreFriendships) {
+            TeamSorterResult result = solveContracted(logger, solver);
+            if (result != null) return result;
+            // the groups could not be contracted, keep them together with friendship constraints
+            solver.delete();
+            solver = createSolver(logger);
+            if (solver == null) {
+                return null;
+            }
+        }
+        if (aggregateColumns) {
+            return solveAggregated(logger, solver);
+        }
+
         // Create the variable matrix
         MPVariable[][] vars = createVariables(solver);
 
@@ -100,9 +223,14 @@ public class TeamSorterSolver {
         int[] constraintCounts = new int[5];
         MPConstraint[] constraint1 = createConstraint1TeamRoleColumnSums(solver, vars);
         MPConstraint[] constraint2 = createConstraint2MemberRowSums(solver, vars);
-        MPConstraint[] constraint3 = createConstraint3MemberRoleCapabilities(solver, vars);
+        // pruned models have no variables for roles a member can't fill
+        MPConstraint[] constraint3 = pruneVariables ? new MPConstraint[0] : createConstraint3MemberRoleCapabilities(solver, vars);
         MPConstraint[] constraint4 = createConstraint4TeamSizeRequirements(solver, vars);
-        MPConstraint[][] constraint5 = createConstraint5FriendshipRequirements(solver, vars);
+        // lazy friendships are added by solveWithLazyFriendships once they turn out to be split,
+        // soft friendships are rewarded through concentration variables instead
+        MPConstraint[][] constraint5 = lazyFriendships || softFriendships ? new MPConstraint[0][0] : createConstraint5FriendshipRequirements(solver, vars);
+        MPVariable[][] concentrationVars = softFriendships && !ignoreFriendships
+                ? createFriendshipConcentrationVariables(solver, vars) : new MPVariable[0][0];
         constraintCounts[0] = constraint1.length;
         constraintCounts[1] = constraint2.length;
         constraintCounts[2] = constraint3.length;
@@ -110,34 +238,270 @@ public class TeamSorterSolver {
         constraintCounts[4] = 0;
         for (int i = 0; i < constraint5.length; i++)
             constraintCounts[4] += constraint5[i].length;
-        logger.log(String.format("%dx%d Matrix: %d variables", input.numbRows(), input.numbAugmentedColumns(), input.numbRows() * input.numbAugmentedColumns()), 3);
+        logger.log(String.format("%dx%d Matrix: %d variables", input.numbRows(), input.numbAugmentedColumns(), solver.numVariables()), 3);
         logger.log(String.format("Created %d constraints for column sums.", constraintCounts[0]), 3);
         logger.log(String.format("Created %d constraints for row sums.", constraintCounts[1]), 3);
         logger.log(String.format("Created %d constraints for member role assignments.", constraintCounts[2]), 3);
         logger.log(String.format("Created %d constraints for team size requirements.", constraintCounts[3]), 3);
         logger.log(String.format("Created %d constraints for friendship requirements.", constraintCounts[4]), 3);
+        if (concentrationVars.length > 0)
+            logger.log(String.format("Created %d friendship concentration variables.", solver.numVariables() - countVariables(vars)), 3);
 
         // Create the objective function
-        int[] preferenceMultipliers = new int[input.getNumbPreferences()];
-        for (int i = 0; i < preferenceMultipliers.length; i++) {
-            int val = preferenceMultipliers.length - i + 1;
-            preferenceMultipliers[i] = val * val;
-        }
+        int[] preferenceMultipliers = createPreferenceMultipliers();
         MPObjective objective = createObjectiveFunction(logger, solver, vars, preferenceMultipliers);
+        setFriendshipConcentrationCoefficients(objective, concentrationVars, preferenceMultipliers);
         objective.setMaximization(); // we maximize it
 
         logger.log("    Solving with " + solver.solverVersion());
+        final MPSolver.ResultStatus resultStatus = lazyFriendships && !softFriendships && !ignoreFriendships
+                ? solveWithLazyFriendships(logger, solver, vars)
+                : solver.solve();
+
+        if (resultStatus != MPSolver.ResultStatus.FEASIBLE && resultStatus != MPSolver.ResultStatus.OPTIMAL) {
+            throw new RuntimeException("No feasible solution found.");
+        }
+
+        return createResult(solver, objective, vars, TeamSorterStatus.of(resultStatus), preferenceMultipliers);
+    }
+
+    // Same model as solve(), but the identical columns of a team-role pair share one variable per
+    // member. Column sums become slot capacities, and the solution is spread back over the columns
+    // so the result and rounding work the same as for the full model.
+    protected TeamSorterResult solveAggregated(TeamSortingLogger logger, MPSolver solver) {
+        TeamRoleSlots slots = new TeamRoleSlots(input);
+        MPVariable[][] slotVars = pruneVariables
+                ? createPrunedVariables(solver, slots.numbSlots(), slots::getRepresentativeColumn)
+                : createVariables(solver, slots.numbSlots());
+
+        int[] constraintCounts = new int[5];
+        constraintCounts[0] = createAggregatedConstraint1SlotCapacities(solver, slotVars, slots).length;
+        constraintCounts[1] = createAggregatedConstraint2MemberRowSums(solver, slotVars, slots).length;
+        if (!pruneVariables)
+            constraintCounts[2] = createAggregatedConstraint3MemberRoleCapabilities(solver, slotVars, slots).length;
+        constraintCounts[3] = createAggregatedConstraint4TeamSizeRequirements(solver, slotVars, slots).length;
+        MPConstraint[][] constraint5 = createAggregatedConstraint5FriendshipRequirements(solver, slotVars, slots);
+        for (int i = 0; i < constraint5.length; i++)
+            constraintCounts[4] += constraint5[i].length;
+        logger.log(String.format("%dx%d Aggregated matrix: %d variables (%d slot types for %d columns)", input.numbRows(), slots.numbSlots(),
+                solver.numVariables(), slots.numbSlots(), input.numbAugmentedColumns()), 3);
+        logger.log(String.format("Created %d constraints for slot capacities.", constraintCounts[0]), 3);
+        logger.log(String.format("Created %d constraints for row sums.", constraintCounts[1]), 3);
+        logger.log(String.format("Created %d constraints for member role assignments.", constraintCounts[2]), 3);
+        logger.log(String.format("Created %d constraints for team size requirements.", constraintCounts[3]), 3);
+        logger.log(String.format("Created %d constraints for friendship requirements.", constraintCounts[4]), 3);
+
+        int[] preferenceMultipliers = createPreferenceMultipliers();
+        MPObjective objective = createAggregatedObjectiveFunction(logger, solver, slotVars, slots, preferenceMultipliers);
+        objective.setMaximization();
+
+        logger.log("    Solving with " + solver.solverVersion());
+        final MPSolver.ResultStatus resultStatus = solver.solve();
+
+        if (resultStatus != MPSolver.ResultStatus.FEASIBLE && resultStatus != MPSolver.ResultStatus.OPTIMAL) {
+            throw new RuntimeException("No feasible solution found.");
+        }
+
+        double[][] solution = slots.expand(getSolutionValues(slotVars));
+        return createResult(solver, objective, solution, TeamSorterStatus.of(resultStatus), preferenceMultipliers);
+    }
+
+    // Aggregated model where each friend group is a single row: one variable per group and team
+    // (or the wild slots) that counts the group's size against the team's seats and carries the
+    // members' summed objective coefficients. Members without a group keep their slot variables.
+    // Instead of friendship rows or seats for grouped members, the role seats a team's groups must
+    // fill are checked with Hall's condition on the groups' role counts. Groups may join any team
+    // one of them prefers, so a group without a common preference doesn't make the model
+    // infeasible on its own.
+    // Returns null, with nothing added to the solver, when a team would need more than
+    // MAX_HALL_ROWS role seat rows, and also when no team can be fixed for some group.
+    protected TeamSorterResult solveContracted(TeamSortingLogger logger, MPSolver solver) {
+        TeamRoleSlots slots = new TeamRoleSlots(input);
+        FriendGroups groups = new FriendGroups(input, slots);
+        long[][] roleSets = getHallRoleSets(groups);
+        if (roleSets == null) {
+            logger.log(String.format("Friend groups have more than %d role seat sets for a team, not contracting them", MAX_HALL_ROWS), 3);
+            return null;
+        }
+        MPVariable[][] groupVars = createGroupVariables(solver, groups);
+        MPVariable[][] slotVars = createContractedVariables(solver, slots, groups);
+        int[][] slotMembers = getSlotMembers(slotVars, slots.numbSlots());
+
+        int[] constraintCounts = new int[4];
+        constraintCounts[0] = createContractedConstraint1SlotCapacities(solver, slotVars, slots, slotMembers).length;
+        constraintCounts[1] = createContractedConstraint2RowSums(solver, slotVars, groupVars, groups).length;
+        constraintCounts[2] = createContractedConstraint3TeamSizes(solver, slotVars, groupVars, groups, slotMembers).length;
+        constraintCounts[3] = createContractedConstraint4RoleSeats(solver, slotVars, groupVars, slots, groups, roleSets, slotMembers).length;
+        logger.log(String.format("%dx%d Contracted matrix: %d variables (%d friend groups as single rows)", input.numbRows(), slots.numbSlots(),
+                solver.numVariables(), groups.numbGroups()), 3);
+        logger.log(String.format("Created %d constraints for slot capacities.", constraintCounts[0]), 3);
+        logger.log(String.format("Created %d constraints for row sums.", constraintCounts[1]), 3);
+        logger.log(String.format("Created %d constraints for team sizes.", constraintCounts[2]), 3);
+        logger.log(String.format("Created %d constraints for groups' role seats.", constraintCounts[3]), 3);
+
+        int[] preferenceMultipliers = createPreferenceMultipliers();
+        MPObjective objective = createContractedObjectiveFunction(logger, solver, slotVars, groupVars, slots, groups, preferenceMultipliers);
+        objective.setMaximization();
+
+        logger.log("    Solving with " + solver.solverVersion());
+        final MPSolver.ResultStatus resultStatus = solver.solve();
+
+        if (resultStatus != MPSolver.ResultStatus.FEASIBLE && resultStatus != MPSolver.ResultStatus.OPTIMAL) {
+            throw new RuntimeException("No feasible solution found.");
+        }
+
+        int[] groupTeams = fixGroupTeams(logger, solver, groupVars, groups);
+        if (groupTeams == null) {
+            logger.log("Could not fix a team for every friend group, not contracting them", 3);
+            return null;
+        }
+        return restoreContractedSeats(logger, slots, groups, groupTeams, preferenceMultipliers);
+    }
+
+    // Team of every group, null if there is none with every group on a single team. After each
+    // solve, every group the LP places on a single team is fixed there in one pass. Of the groups
+    // still split, the most decided one is then fixed, re-solving from the previous basis. A team
+    // that leaves the model infeasible is ruled out for the group instead.
+    protected int[] fixGroupTeams(TeamSortingLogger logger, MPSolver solver, MPVariable[][] groupVars, FriendGroups groups) {
+        MPSolverParameters parameters = createIncrementalParameters();
+        int[] teams = new int[groupVars.length];
+        int numbFixed = 0;
+        int numbSolves = 0;
+        while (true) {
+            // every value is read before a bound changes, the solver drops its solution after that
+            List<MPVariable> integral = new ArrayList<>();
+            MPVariable fractional = null;
+            double fractionalValue = 0;
+            for (int g = 0; g < groupVars.length; g++) {
+                for (int t = 0; t < groupVars[g].length; t++) {
+                    MPVariable v = groupVars[g][t];
+                    if (v == null) continue;
+                    double value = v.solutionValue();
+                    if (value >= 1 - TeamRoleSlots.TOLERANCE) {
+                        teams[g] = t;
+                        if (v.lb() < 1) integral.add(v);
+                    } else if (value > TeamRoleSlots.TOLERANCE && value > fractionalValue) {
+                        fractional = v;
+                        fractionalValue = value;
+                    }
+                }
+            }
+            if (fractional == null) break;
+            for (MPVariable v : integral) v.setLb(1);
+            fractional.setLb(1);
+            numbSolves++;
+            if (!TeamSorterStatus.of(solver.solve(parameters)).hasSolution()) {
+                fractional.setLb(0);
+                fractional.setUb(0);
+                numbSolves++;
+                if (!TeamSorterStatus.of(solver.solve(parameters)).hasSolution()) return null;
+            }
+            numbFixed++;
+        }
+        logger.log(String.format("Fixed %d friend groups split by the contracted LP in %d re-solves", numbFixed, numbSolves), 3);
+        return teams;
+    }
+
+    // Seats every member with the groups' teams fixed, grouped members only on the slots they can
+    // fill on their group's team. Every variable is in one row sum and one slot capacity, so the
+    // optimal vertex is integral, and the role seat rows of the contracted model make sure one
+    // exists.
+    protected TeamSorterResult restoreContractedSeats(TeamSortingLogger logger, TeamRoleSlots slots, FriendGroups groups, int[] groupTeams, int[] preferenceMultipliers) {
+        MPSolver solver = createSolver(logger);
+        if (solver == null) {
+            return null;
+        }
+        MPVariable[][] vars = createRestoredVariables(solver, slots, groups, groupTeams);
+        createAggregatedConstraint1SlotCapacities(solver, vars, slots);
+        createRestoredConstraint2RowSums(solver, vars);
+        MPObjective objective = createAggregatedObjectiveFunction(logger, solver, vars, slots, preferenceMultipliers);
+        objective.setMaximization();
+
         final MPSolver.ResultStatus resultStatus = solver.solve();
 
         if (resultStatus != MPSolver.ResultStatus.FEASIBLE && resultStatus != MPSolver.ResultStatus.OPTIMAL) {
             throw new RuntimeException("No feasible solution found.");
         }
 
+        TeamSorterResult result = createResult(solver, objective, slots.expand(getSolutionValues(vars)), TeamSorterStatus.of(resultStatus), preferenceMultipliers);
+        logUnmetRoleRequirements(logger, result.getRoundedResult() != null ? result.getRoundedResult() : result);
+        return result;
+    }
+
+    // Rounding keeps friends together before it fills role seats, so it can leave some empty
+    protected void logUnmetRoleRequirements(TeamSortingLogger logger, TeamSorterResult result) {
+        int unmet = result.countUnmetRoleRequirements();
+        if (unmet > 0)
+            logger.log(String.format("WARNING: %d team-role requirement seats are not filled in the result", unmet), 0);
+    }
+
+    protected MPSolver.ResultStatus solveWithLazyFriendships(TeamSortingLogger logger, MPSolver solver, MPVariable[][] vars) {
+        MPSolverParameters parameters = createIncrementalParameters();
+        Friendship[] friendships = input.getFriendships();
+        boolean[] added = new boolean[friendships.length];
+        int[] wildCols = getWildColumns();
+        int round = 0;
+        int numbAdded = 0;
+        while (true) {
+            MPSolver.ResultStatus resultStatus = solver.solve(parameters);
+            round++;
+            if (resultStatus != MPSolver.ResultStatus.FEASIBLE && resultStatus != MPSolver.ResultStatus.OPTIMAL) {
+                return resultStatus;
+            }
+            int split = 0;
+            for (int f = 0; f < friendships.length; f++) {
+                if (added[f] || !isFriendshipSplit(vars, friendships[f], wildCols)) continue;
+                numbAdded += createFriendshipConstraints(solver, vars, friendships[f], wildCols).length;
+                added[f] = true;
+                split++;
+            }
+            logger.log(String.format("Lazy friendships round %d: %d split friendships, %d friendship constraints in total", round, split, numbAdded), 3);
+            if (split == 0) return resultStatus;
+        }
+    }
+
+    // GLOP only keeps the previous basis with incrementality on and presolve off, since presolve
+    // rewrites the model
+    protected MPSolverParameters createIncrementalParameters() {
+        MPSolverParameters parameters = new MPSolverParameters();
+        parameters.setIntegerParam(MPSolverParameters.IntegerParam.INCREMENTALITY, MPSolverParameters.IncrementalityValues.INCREMENTALITY_ON.swigValue());
+        parameters.setIntegerParam(MPSolverParameters.IntegerParam.PRESOLVE, MPSolverParameters.PresolveValues.PRESOLVE_OFF.swigValue());
+        return parameters;
+    }
+
+    protected TeamSorterResult createResult(MPSolver solver, MPObjective objective, double[][] solution, TeamSorterStatus resultStatus, int[] preferenceMultipliers) {
         TeamSorterResult roundedResult = null;
         if (roundFriendships) {
-            TeamSorterFriendshipRoundingConstrained rounding = new TeamSorterFriendshipRoundingConstrained(solver, objective, vars, input, resultStatus, preferenceMultipliers);
-            MemberAssignment[] assignments = rounding.calculateAssignments();
+            MemberAssignment[] assignments;
+            if (numbRoundings > 1) {
+                assignments = createRoundingEnsemble(solver, objective, solution, resultStatus, preferenceMultipliers).calculateAssignments();
+            } else {
+                TeamSorterFriendshipRoundingConstrained rounding = new TeamSorterFriendshipRoundingConstrained(solver, objective, solution, input, resultStatus, preferenceMultipliers);
+                assignments = rounding.calculateAssignments();
+            }
+            roundedResult = new TeamSorterResult(solver, objective, solution, input, resultStatus, preferenceMultipliers, assignments);
+            if (localSearchMillis > 0) roundedResult = createLocalSearch(roundedResult).improve(localSearchMillis);
+        }
+
+        TeamSorterResult result = new TeamSorterResult(solver, objective, solution, input, resultStatus, preferenceMultipliers);
+        if (roundedResult != null) result.setRoundedResult(roundedResult);
+
+        return result;
+    }
+
+    protected TeamSorterResult createResult(MPSolver solver, MPObjective objective, MPVariable[][] vars, TeamSorterStatus resultStatus, int[] preferenceMultipliers) {
+        TeamSorterResult roundedResult = null;
+        if (roundFriendships) {
+            MemberAssignment[] assignments;
+            if (numbRoundings > 1) {
+                // read the values once, the roundings run on other threads
+                assignments = createRoundingEnsemble(solver, objective, getSolutionValues(vars), resultStatus, preferenceMultipliers).calculateAssignments();
+            } else {
+                TeamSorterFriendshipRoundingConstrained rounding = new TeamSorterFriendshipRoundingConstrained(solver, objective, vars, input, resultStatus, preferenceMultipliers);
+                assignments = rounding.calculateAssignments();
+            }
             roundedResult = new TeamSorterResult(solver, objective, vars, input, resultStatus, preferenceMultipliers, assignments);
+            if (localSearchMillis > 0) roundedResult = createLocalSearch(roundedResult).improve(localSearchMillis);
             /*System.out.println("Rounded friendships! Result here...");
             System.out.println("Result " + result2.toPrintStats());
             System.out.println(result2.toPrintFinalPreferences());
@@ -156,9 +520,64 @@ public class TeamSorterSolver {
         return result;
     }
 
+    protected FriendshipRoundingEnsemble createRoundingEnsemble(MPSolver solver, MPObjective objective, double[][] solution, TeamSorterStatus resultStatus, int[] preferenceMultipliers) {
+        FriendshipRoundingEnsemble ensemble = new FriendshipRoundingEnsemble(solver, objective, solution, input, resultStatus, preferenceMultipliers);
+        ensemble.setNumbRoundings(numbRoundings);
+        return ensemble;
+    }
+
+    protected FriendshipLocalSearch createLocalSearch(TeamSorterResult roundedResult) {
+        FriendshipLocalSearch search = new FriendshipLocalSearch(roundedResult);
+        search.setUseHardPreferenceObjectiveFunction(useHardPreferenceObjectiveFunction);
+        return search;
+    }
+
+    protected MPSolver createSolver(TeamSortingLogger logger) {
+        String solverID = useIntegralVariables ? "SCIP" : "GLOP";
+        MPSolver solver = MPSolver.createSolver(solverID);
+        if (solver == null) {
+            logger.log(String.format("    Could not create solver %s", solverID));
+        }
+        return solver;
+    }
+
+    protected int[] createPreferenceMultipliers() {
+        int[] preferenceMultipliers = new int[input.getNumbPreferences()];
+        for (int i = 0; i < preferenceMultipliers.length; i++) {
+            int val = preferenceMultipliers.length - i + 1;
+            preferenceMultipliers[i] = val * val;
+        }
+        return preferenceMultipliers;
+    }
+
     protected MPVariable[][] createVariables(MPSolver solver) {
+        if (pruneVariables) {
+            return createPrunedVariables(solver, input.numbAugmentedColumns(), j -> j);
+        }
+        return createVariables(solver, input.numbAugmentedColumns());
+    }
+
+    // Creates only the cells a member can take and leaves the rest null; columnOf maps a matrix
+    // column to an augmented column with the same team and role
+    protected MPVariable[][] createPrunedVariables(MPSolver solver, int cols, IntUnaryOperator columnOf) {
+        int rows = input.numbMembers();
+        MPVariable[][] vars = new MPVariable[rows][cols];
+        for (int row = 0; row < rows; row++) {
+            int[] memberRoles = input.getMemberRoles(row);
+            Arrays.sort(memberRoles);
+            for (int col = 0; col < cols; col++) {
+                if (!isColumnEligible(row, columnOf.applyAsInt(col), memberRoles)) continue;
+                if (!useIntegralVariables)
+                    vars[row][col] = solver.makeNumVar(0, 1, "");
+                else
+                    vars[row][col] = solver.makeIntVar(0, 1, "");
+            }
+        }
+        return vars;
+    }
+
+    protected MPVariable[][] createVariables(MPSolver solver, int cols) {
         int rows = input.numbMembers();
-        int cols = input.numbAugmentedColumns();
         MPVariable[][] vars = new MPVariable[rows][];
         if (useIntegralVariables) System.out.printf("Using integral variables");
         for (int row = 0; row < rows; row++) {
@@ -171,92 +590,443 @@ public class TeamSorterSolver {
     }
 
     protected MPConstraint[] createConstraint1TeamRoleColumnSums(MPSolver solver, MPVariable[][] vars) {
-        MPConstraint[] constraints = new MPConstraint[input.numbAugmentedColumns()];
-        int constraintIndex = 0;
+        SolverConstraintWriter writer = new SolverConstraintWriter(solver, vars);
+        writeConstraint1TeamRoleColumnSums(writer);
+        return writer.getConstraints();
+    }
+
+    protected void writeConstraint1TeamRoleColumnSums(TeamSorterConstraintWriter writer) {
         // Create constraints for all columns
-        int beginExtraColumns = constraintIndex;
-        while (constraintIndex < constraints.length) {
-            // get team role mapping if it exists
-            int t = input.getJToTeam(constraintIndex);
-            int r = input.getJToRole(constraintIndex);
+        for (int j = 0; j < input.numbAugmentedColumns(); j++) {
+            String name = null;
+            if (writer.keepsNames()) {
+                // get team role mapping if it exists
+                int t = input.getJToTeam(j);
+                int r = input.getJToRole(j);
+                if (t < 0)
+                    name = String.format("colsumextra%dcolumn%d", j, j);
+                else if (r < 0)
+                    name = String.format("colsumteam%droleanydcolumn%d", t, j);
+                else
+                    name = String.format("colsumteam%drole%dcolumn%d", t, r, j);
+            }
+            writer.addConstraint(1, 1, name);
+            for (int m = 0; m < input.numbMembers(); m++) {
+                writer.setCoefficient(m, j, 1);
+            }
+        }
+    }
+
+    protected MPConstraint[] createConstraint2MemberRowSums(MPSolver solver, MPVariable[][] vars) {
+        SolverConstraintWriter writer = new SolverConstraintWriter(solver, vars);
+        writeConstraint2MemberRowSums(writer);
+        return writer.getConstraints();
+    }
+
+    protected void writeConstraint2MemberRowSums(TeamSorterConstraintWriter writer) {
+        for (int m = 0; m < input.numbRows(); m++) {
+            writer.addConstraint(1, 1, writer.keepsNames() ? String.format("rowsummember%drow%d", m, m) : null);
+            // System.out.printf("Preferred teams for member %d: %s%n", m, Arrays.toString(input.getMember(m).getPreferredTeams()));
+            for (int j = 0; j < input.numbAugmentedColumns(); j++) {
+                int t = input.getJToTeam(j);
+                if (t < 0 || useHardPreferenceObjectiveFunction || input.getPreferenceRank(m, t) >= 0) {
+                    writer.setCoefficient(m, j, 1);
+                }
+            }
+        }
+    }
+
+    protected MPConstraint[] createConstraint3MemberRoleCapabilities(MPSolver solver, MPVariable[][] vars) {
+        SolverConstraintWriter writer = new SolverConstraintWriter(solver, vars);
+        writeConstraint3MemberRoleCapabilities(writer);
+        return writer.getConstraints();
+    }
+
+    protected void writeConstraint3MemberRoleCapabilities(TeamSorterConstraintWriter writer) {
+        for (int m = 0; m < input.numbRows(); m++) {
+            writer.addConstraint(NEGATIVE_INFINITY, 0, writer.keepsNames() ? String.format("membercapableroles%d", m) : null);
+            int[] memberRoles = input.getMemberRoles(m);
+            Arrays.sort(memberRoles);
+            for (int j = 0; j < input.numbAugmentedColumns(); j++) {
+                int role = input.getJToRole(j);
+                if (role >= 0 && Arrays.binarySearch(memberRoles, role) < 0) {
+                    writer.setCoefficient(m, j, 1);
+                }
+            }
+        }
+    }
+
+    // Whether member m may be placed in column j: the column's role is one the member can fill and,
+    // unless the hard preference objective is used, the column's team is one the member prefers.
+    // These are exactly the cells the row sum and role capability constraints leave at 0.
+    protected boolean isColumnEligible(int m, int j, int[] sortedMemberRoles) {
+        int role = input.getJToRole(j);
+        if (role >= 0 && Arrays.binarySearch(sortedMemberRoles, role) < 0) return false;
+        int t = input.getJToTeam(j);
+        return t < 0 || useHardPreferenceObjectiveFunction || input.getPreferenceRank(m, t) >= 0;
+    }
+
+    protected MPConstraint[] createAggregatedConstraint1SlotCapacities(MPSolver solver, MPVariable[][] vars, TeamRoleSlots slots) {
+        MPConstraint[] constraints = new MPConstraint[slots.numbSlots()];
+        for (int s = 0; s < constraints.length; s++) {
+            int t = slots.getTeam(s);
+            int r = slots.getRole(s);
+            int capacity = slots.getCapacity(s);
             MPConstraint constraint;
             if (t >= 0) {
                 if (r < 0)
-                    constraint = solver.makeConstraint(1, 1, String.format("colsumteam%droleanydcolumn%d", t, constraintIndex));
+                    constraint = makeConstraint(solver, capacity, capacity, "slotsumteam%droleany", t);
                 else
-                    constraint = solver.makeConstraint(1, 1, String.format("colsumteam%drole%dcolumn%d", t, r, constraintIndex));
+                    constraint = makeConstraint(solver, capacity, capacity, "slotsumteam%drole%d", t, r);
             } else {
-                constraint = solver.makeConstraint(1, 1, String.format("colsumextra%dcolumn%d", constraintIndex - beginExtraColumns, constraintIndex));
+                constraint = makeConstraint(solver, capacity, capacity, "slotsumextra%d", s);
+            }
+            constraints[s] = constraint;
+            for (int m = 0; m < vars.length; m++) {
+                if (vars[m][s] != null) constraint.setCoefficient(vars[m][s], 1);
             }
-            constraints[constraintIndex] = constraint;
-            forEach(getColumns(vars, constraintIndex), (v, i, j) -> {
-                constraint.setCoefficient(v, 1);
-            });
-            constraintIndex++;
         }
         return constraints;
     }
 
-    protected MPConstraint[] createConstraint2MemberRowSums(MPSolver solver, MPVariable[][] vars) {
+    protected MPConstraint[] createAggregatedConstraint2MemberRowSums(MPSolver solver, MPVariable[][] vars, TeamRoleSlots slots) {
         MPConstraint[] constraints = new MPConstraint[input.numbRows()];
         for (int m = 0; m < constraints.length; m++) {
-            MPConstraint constraint = solver.makeConstraint(1, 1, String.format("rowsummember%drow%d", m, m));;
+            MPConstraint constraint = makeConstraint(solver, 1, 1, "rowsummember%drow%d", m, m);
             constraints[m] = constraint;
-            // System.out.printf("Preferred teams for member %d: %s%n", m, Arrays.toString(input.getMember(m).getPreferredTeams()));
-            int[] memberPrefs = input.getMemberPreferences(m);
-            Arrays.sort(memberPrefs);
-            forEach(getRows(vars, m), (v, i, j) -> {
-                int t = input.getJToTeam(j);
-                if (t < 0) {
-                    constraint.setCoefficient(v, 1);
-                    return;
-                }
-                if (useHardPreferenceObjectiveFunction || Arrays.binarySearch(memberPrefs, t) >= 0) {
-                    constraint.setCoefficient(v, 1);
+            for (int s = 0; s < slots.numbSlots(); s++) {
+                if (vars[m][s] == null) continue;
+                int t = slots.getTeam(s);
+                if (t < 0 || useHardPreferenceObjectiveFunction || input.getPreferenceRank(m, t) >= 0) {
+                    constraint.setCoefficient(vars[m][s], 1);
                 }
-            });
+            }
         }
         return constraints;
     }
 
-    protected MPConstraint[] createConstraint3MemberRoleCapabilities(MPSolver solver, MPVariable[][] vars) {
+    protected MPConstraint[] createAggregatedConstraint3MemberRoleCapabilities(MPSolver solver, MPVariable[][] vars, TeamRoleSlots slots) {
         MPConstraint[] constraints = new MPConstraint[input.numbRows()];
         for (int m = 0; m < constraints.length; m++) {
-            MPConstraint constraint = solver.makeConstraint(NEGATIVE_INFINITY, 0, String.format("membercapableroles%d", m));
+            MPConstraint constraint = makeConstraint(solver, NEGATIVE_INFINITY, 0, "membercapableroles%d", m);
             constraints[m] = constraint;
             int[] memberRoles = input.getMemberRoles(m);
             Arrays.sort(memberRoles);
-            forEach(getRows(vars, m), (v, i, j) -> {
-                int role = input.getJToRole(j);
-                if (role == -1) return;
-                if (Arrays.binarySearch(memberRoles, role) < 0) {
-                    constraint.setCoefficient(v, 1);
+            for (int s = 0; s < slots.numbSlots(); s++) {
+                int role = slots.getRole(s);
+                if (vars[m][s] != null && role >= 0 && Arrays.binarySearch(memberRoles, role) < 0) {
+                    constraint.setCoefficient(vars[m][s], 1);
                 }
-            });
+            }
         }
         return constraints;
     }
 
-    protected MPConstraint[] createConstraint4TeamSizeRequirements(MPSolver solver, MPVariable[][] vars) {
+    protected MPConstraint[] createAggregatedConstraint4TeamSizeRequirements(MPSolver solver, MPVariable[][] vars, TeamRoleSlots slots) {
         MPConstraint[] constraints = new MPConstraint[input.numbTeams()];
-        int constraintIndex = 0;
         for (int t = 0; t < input.numbTeams(); t++) {
-            int[] tColumns = input.getColsOfTeam(t);
-            MPConstraint constraint = solver.makeConstraint(input.getTeamMinimumMembers(t), INFINITY, String.format("team%dminmembers", t));
-            constraints[constraintIndex] = constraint;
-            forEach(getColumns(vars, tColumns), (v, i, j) -> {
-                constraint.setCoefficient(v, 1);
-            });
-            constraintIndex++;
+            MPConstraint constraint = makeConstraint(solver, input.getTeamMinimumMembers(t), INFINITY, "team%dminmembers", t);
+            constraints[t] = constraint;
+            for (int s : slots.getSlotsOfTeam(t)) {
+                for (int m = 0; m < vars.length; m++) {
+                    if (vars[m][s] != null) constraint.setCoefficient(vars[m][s], 1);
+                }
+            }
         }
         return constraints;
     }
 
+    protected MPConstraint[][] createAggregatedConstraint5FriendshipRequirements(MPSolver solver, MPVariable[][] vars, TeamRoleSlots slots) {
+        Friendship[] friendships = input.getFriendships();
+        if (ignoreFriendships) {
+            return new MPConstraint[0][0];
+        }
+        MPConstraint[][] constraints = new MPConstraint[friendships.length][];
+        int[] wildSlots = slots.getWildSlots();
+        for (int f = 0; f < constraints.length; f++) {
+            int[] memberIndexes = friendships[f].getMemberIndexes();
+            int friendshipSize = memberIndexes.length - 1;
+            MPConstraint[] friendshipConstraints = new MPConstraint[memberIndexes.length * input.numbTeams()];
+            constraints[f] = friendshipConstraints;
+            int constraintIndex = 0;
+            for (int m = 0; m < memberIndexes.length; m++) {
+                for (int t = 0; t < input.numbTeams(); t++) {
+                    MPConstraint constraint = makeConstraint(solver, 0, 0, "member%dfriendshipteam%d", m, t);
+                    friendshipConstraints[constraintIndex] = constraint;
+                    int[] teamSlots = slots.getSlotsOfTeam(t);
+                    for (int i : memberIndexes) {
+                        double coefficient = i == memberIndexes[m] ? friendshipSize : -1;
+                        for (int s : teamSlots) {
+                            if (vars[i][s] != null) constraint.setCoefficient(vars[i][s], coefficient);
+                        }
+                        for (int s : wildSlots) {
+                            if (vars[i][s] != null) constraint.setCoefficient(vars[i][s], coefficient);
+                        }
+                    }
+                    constraintIndex++;
+                }
+            }
+        }
+        return constraints;
+    }
+
+    // Slot variables of the members without a group, grouped members are placed by their group
+    protected MPVariable[][] createContractedVariables(MPSolver solver, TeamRoleSlots slots, FriendGroups groups) {
+        MPVariable[][] vars = new MPVariable[input.numbMembers()][slots.numbSlots()];
+        for (int m = 0; m < vars.length; m++) {
+            if (groups.isGrouped(m)) continue;
+            int[] memberRoles = input.getMemberRoles(m);
+            Arrays.sort(memberRoles);
+            for (int s = 0; s < slots.numbSlots(); s++) {
+                if (!isColumnEligible(m, slots.getRepresentativeColumn(s), memberRoles)) continue;
+                vars[m][s] = useIntegralVariables ? solver.makeIntVar(0, 1, "") : solver.makeNumVar(0, 1, "");
+            }
+        }
+        return vars;
+    }
+
+    // One variable per group and team, indexed [group][team] with the wild slots last
+    protected MPVariable[][] createGroupVariables(MPSolver solver, FriendGroups groups) {
+        MPVariable[][] vars = new MPVariable[groups.numbGroups()][input.numbTeams() + 1];
+        for (int g = 0; g < vars.length; g++) {
+            for (int t = 0; t <= groups.wildTeam(); t++) {
+                if (!isGroupEligible(groups, g, t)) continue;
+                vars[g][t] = useIntegralVariables ? solver.makeIntVar(0, 1, "") : solver.makeNumVar(0, 1, "");
+            }
+        }
+        return vars;
+    }
+
+    protected boolean isGroupEligible(FriendGroups groups, int g, int t) {
+        if (groups.size(g) > groups.numbSeats(t) || !groups.canJoinTeam(g, t)) return false;
+        if (t == groups.wildTeam() || useHardPreferenceObjectiveFunction) return true;
+        for (int m : groups.getMembers(g)) {
+            if (input.getPreferenceRank(m, t) >= 0) return true;
+        }
+        return false;
+    }
+
+    // Seats taken by members without a group, groups take the rest of a team's seats
+    protected MPConstraint[] createContractedConstraint1SlotCapacities(MPSolver solver, MPVariable[][] vars, TeamRoleSlots slots, int[][] slotMembers) {
+        MPConstraint[] constraints = new MPConstraint[slots.numbSlots()];
+        for (int s = 0; s < constraints.length; s++) {
+            MPConstraint constraint = makeConstraint(solver, 0, slots.getCapacity(s), "slotcapacity%d", s);
+            constraints[s] = constraint;
+            for (int m : slotMembers[s]) constraint.setCoefficient(vars[m][s], 1);
+        }
+        return constraints;
+    }
+
+    protected MPConstraint[] createContractedConstraint2RowSums(MPSolver solver, MPVariable[][] vars, MPVariable[][] groupVars, FriendGroups groups) {
+        List<MPConstraint> constraints = new ArrayList<>(vars.length);
+        for (int m = 0; m < vars.length; m++) {
+            if (groups.isGrouped(m)) continue;
+            MPConstraint constraint = makeConstraint(solver, 1, 1, "rowsummember%drow%d", m, m);
+            constraints.add(constraint);
+            for (MPVariable v : vars[m]) {
+                if (v != null) constraint.setCoefficient(v, 1);
+            }
+        }
+        for (int g = 0; g < groupVars.length; g++) {
+            MPConstraint constraint = makeConstraint(solver, 1, 1, "rowsumgroup%d", g);
+            constraints.add(constraint);
+            for (MPVariable v : groupVars[g]) {
+                if (v != null) constraint.setCoefficient(v, 1);
+            }
+        }
+        return constraints.toArray(MPConstraint[]::new);
+    }
+
+    // Every team, and the wild slots, is filled exactly, a group counting once per member
+    protected MPConstraint[] createContractedConstraint3TeamSizes(MPSolver solver, MPVariable[][] vars, MPVariable[][] groupVars, FriendGroups groups,
+                                                                  int[][] slotMembers) {
+        List<MPConstraint> constraints = new ArrayList<>();
+        for (int t = 0; t <= groups.wildTeam(); t++) {
+            int[] teamSlots = groups.getSlotsOfTeam(t);
+            if (teamSlots.length == 0) continue;
+            int seats = groups.numbSeats(t);
+            MPConstraint constraint = makeConstraint(solver, seats, seats, "teamsize%d", t);
+            constraints.add(constraint);
+            for (int s : teamSlots) {
+                for (int m : slotMembers[s]) constraint.setCoefficient(vars[m][s], 1);
+            }
+            for (int g = 0; g < groupVars.length; g++) {
+                if (groupVars[g][t] != null) constraint.setCoefficient(groupVars[g][t], groups.size(g));
+            }
+        }
+        return constraints.toArray(MPConstraint[]::new);
+    }
+
+    // The role seats left to a team's groups can be matched to their members: by Hall's condition,
+    // for every set of the team's role slots in getHallRoleSets, the seats of those slots that
+    // members without a group don't take are at most the number of group members with one of the
+    // roles. Teams no group may join fill their role seats through the slot capacities and team
+    // size alone.
+    protected MPConstraint[] createContractedConstraint4RoleSeats(MPSolver solver, MPVariable[][] vars, MPVariable[][] groupVars,
+                                                                  TeamRoleSlots slots, FriendGroups groups, long[][] roleSets,
+                                                                  int[][] slotMembers) {
+        List<MPConstraint> constraints = new ArrayList<>();
+        for (int t = 0; t < input.numbTeams(); t++) {
+            if (roleSets[t].length == 0) continue;
+            int[] roleSlots = groups.getRoleSlotsOfTeam(t);
+            long[][] memberMasks = new long[groupVars.length][];
+            for (int g = 0; g < groupVars.length; g++) {
+                if (groupVars[g][t] != null) memberMasks[g] = groups.getRoleMasks(g, roleSlots);
+            }
+            for (int i = 0; i < roleSets[t].length; i++) {
+                long roleSet = roleSets[t][i];
+                int seats = 0;
+                for (int k = 0; k < roleSlots.length; k++) {
+                    if ((roleSet & 1L << k) != 0) seats += slots.getCapacity(roleSlots[k]);
+                }
+                MPConstraint constraint = makeConstraint(solver, seats, INFINITY, "roleseatsteam%dset%d", t, i);
+                constraints.add(constraint);
+                for (int k = 0; k < roleSlots.length; k++) {
+                    if ((roleSet & 1L << k) == 0) continue;
+                    int s = roleSlots[k];
+                    for (int m : slotMembers[s]) constraint.setCoefficient(vars[m][s], 1);
+                }
+                for (int g = 0; g < groupVars.length; g++) {
+                    if (memberMasks[g] == null) continue;
+                    int count = 0;
+                    for (long mask : memberMasks[g]) {
+                        if ((mask & roleSet) != 0) count++;
+                    }
+                    constraint.setCoefficient(groupVars[g][t], count);
+                }
+            }
+        }
+        return constraints.toArray(MPConstraint[]::new);
+    }
+
+    /**
+     * Sets of each team's role slots (bit k for slot k of FriendGroups.getRoleSlotsOfTeam) that
+     * Hall's condition has to be checked for. A set only needs a row if it is the largest with its
+     * group members: growing a set by a slot no further group member can fill adds that slot's
+     * seats but at most as many members without a group. The largest sets are the complements of
+     * the unions of the role masks group members have, so only the masks that occur are combined.
+     * @return sets indexed [team], empty for teams no group may join, or null if a team has more
+     * than 63 role slots or more than MAX_HALL_ROWS sets
+     */
+    protected long[][] getHallRoleSets(FriendGroups groups) {
+        long[][] roleSets = new long[input.numbTeams()][];
+        for (int t = 0; t < roleSets.length; t++) {
+            int[] roleSlots = groups.getRoleSlotsOfTeam(t);
+            Set<Long> masks = new LinkedHashSet<>();
+            for (int g = 0; g < groups.numbGroups(); g++) {
+                if (!isGroupEligible(groups, g, t)) continue;
+                if (roleSlots.length >= Long.SIZE) return null;
+                for (long mask : groups.getRoleMasks(g, roleSlots)) masks.add(mask);
+            }
+            if (masks.isEmpty() || roleSlots.length == 0) {
+                roleSets[t] = new long[0];
+                continue;
+            }
+            Set<Long> unions = new LinkedHashSet<>();
+            unions.add(0L);
+            for (long mask : masks) {
+                for (long union : unions.toArray(Long[]::new)) {
+                    unions.add(union | mask);
+                    if (unions.size() > MAX_HALL_ROWS) return null;
+                }
+            }
+            long allSlots = (1L << roleSlots.length) - 1;
+            roleSets[t] = unions.stream().mapToLong(union -> allSlots & ~union).filter(roleSet -> roleSet != 0).toArray();
+        }
+        return roleSets;
+    }
+
+    // Members with a variable in each slot
+    protected int[][] getSlotMembers(MPVariable[][] vars, int numbSlots) {
+        int[] counts = new int[numbSlots];
+        for (MPVariable[] row : vars) {
+            for (int s = 0; s < numbSlots; s++) {
+                if (row[s] != null) counts[s]++;
+            }
+        }
+        int[][] slotMembers = new int[numbSlots][];
+        for (int s = 0; s < numbSlots; s++) slotMembers[s] = new int[counts[s]];
+        Arrays.fill(counts, 0);
+        for (int m = 0; m < vars.length; m++) {
+            for (int s = 0; s < numbSlots; s++) {
+                if (vars[m][s] != null) slotMembers[s][counts[s]++] = m;
+            }
+        }
+        return slotMembers;
+    }
+
+    // The members' slot variables as in the aggregated objective, and for each group and team the
+    // sum of its members' coefficients for that team
+    protected MPObjective createContractedObjectiveFunction(TeamSortingLogger logger, MPSolver solver, MPVariable[][] vars, MPVariable[][] groupVars,
+                                                            TeamRoleSlots slots, FriendGroups groups, int ... prefValues) {
+        MPObjective objective = createAggregatedObjectiveFunction(logger, solver, vars, slots, prefValues);
+        int objAdder = getObjectiveAdder();
+        for (int g = 0; g < groupVars.length; g++) {
+            for (int t = 0; t < groupVars[g].length; t++) {
+                if (groupVars[g][t] == null) continue;
+                int column = slots.getRepresentativeColumn(groups.getSlotsOfTeam(t)[0]);
+                double coefficient = 0;
+                for (int m : groups.getMembers(g)) coefficient += getObjectiveCoefficient(m, column, objAdder, prefValues);
+                objective.setCoefficient(groupVars[g][t], coefficient);
+            }
+        }
+        return objective;
+    }
+
+    // Slot variables of every member for restoring seats, a grouped member only gets the slots
+    // they can fill on their group's team
+    protected MPVariable[][] createRestoredVariables(MPSolver solver, TeamRoleSlots slots, FriendGroups groups, int[] groupTeams) {
+        MPVariable[][] vars = new MPVariable[input.numbMembers()][slots.numbSlots()];
+        for (int m = 0; m < vars.length; m++) {
+            int g = groups.getGroup(m);
+            int[] memberRoles = input.getMemberRoles(m);
+            Arrays.sort(memberRoles);
+            int[] memberSlots = g >= 0 ? groups.getSlotsOfTeam(groupTeams[g]) : IntStream.range(0, slots.numbSlots()).toArray();
+            for (int s : memberSlots) {
+                boolean eligible = g >= 0 ? groups.canFill(m, s) : isColumnEligible(m, slots.getRepresentativeColumn(s), memberRoles);
+                if (!eligible) continue;
+                vars[m][s] = useIntegralVariables ? solver.makeIntVar(0, 1, "") : solver.makeNumVar(0, 1, "");
+            }
+        }
+        return vars;
+    }
+
+    protected MPConstraint[] createRestoredConstraint2RowSums(MPSolver solver, MPVariable[][] vars) {
+        MPConstraint[] constraints = new MPConstraint[vars.length];
+        for (int m = 0; m < vars.length; m++) {
+            constraints[m] = makeConstraint(solver, 1, 1, "rowsummember%drow%d", m, m);
+            for (MPVariable v : vars[m]) {
+                if (v != null) constraints[m].setCoefficient(v, 1);
+            }
+        }
+        return constraints;
+    }
+
+    protected MPConstraint[] createConstraint4TeamSizeRequirements(MPSolver solver, MPVariable[][] vars) {
+        SolverConstraintWriter writer = new SolverConstraintWriter(solver, vars);
+        writeConstraint4TeamSizeRequirements(writer);
+        return writer.getConstraints();
+    }
+
+    protected void writeConstraint4TeamSizeRequirements(TeamSorterConstraintWriter writer) {
+        for (int t = 0; t < input.numbTeams(); t++) {
+            int[] tColumns = input.getColsOfTeam(t);
+            writer.addConstraint(input.getTeamMinimumMembers(t), INFINITY, writer.keepsNames() ? String.format("team%dminmembers", t) : null);
+            for (int m = 0; m < input.numbMembers(); m++) {
+                for (int j : tColumns) {
+                    writer.setCoefficient(m, j, 1);
+                }
+            }
+        }
+    }
+
     protected MPConstraint[][] createConstraint5FriendshipRequirements(MPSolver solver, MPVariable[][] vars) {
         // For each friendship, there needs to be a set of constraints for each team
         // For each friendship-team combo, there needs to be a constraint for each member where
         // their assignment to the team is |F_i| and all other member's assignments are -1.
         // Then, the constraint is only met if they sum to be 0.
+        // Only the friend rows and the team's columns (plus wild columns) carry coefficients,
+        // so those cells are visited directly instead of scanning the whole matrix.
 
         Friendship[] friendships = input.getFriendships();
         MPConstraint[][] constraints = new MPConstraint[friendships.length][];
@@ -264,64 +1034,253 @@ public class TeamSorterSolver {
             constraints = new MPConstraint[0][0];
             return constraints;
         }
+        int[] wildCols = getWildColumns();
         for (int f = 0; f < constraints.length; f++) {
-            Member[] members = friendships[f].getMembers();
-            int[] memberIndexes = Arrays.stream(members).mapToInt(m -> input.getMemberIndex(m)).toArray();
-            Arrays.sort(memberIndexes);
-            int friendshipSize = members.length - 1;
-            MPConstraint[] friendshipConstraints = new MPConstraint[members.length * input.numbTeams()];
-            constraints[f] = friendshipConstraints;
-            int constraintIndex = 0;
-            for (int m = 0; m < members.length; m++) {
-                for (int t = 0; t < input.numbTeams(); t++) {
-                    //System.out.printf("Created friendship constraint for member %d on team %d%n", m, t);
-                    MPConstraint constraint = solver.makeConstraint(0, 0, String.format("member%dfriendshipteam%d", m, t));
-                    friendshipConstraints[constraintIndex] = constraint;
-                    int[] teamCols = input.getColsOfTeam(t);
-                    int currentMember = m;
-                    forEach(vars, (v, i, j) -> {
-                        if ((Arrays.binarySearch(teamCols, j) >= 0 || input.getJToTeam(j) < 0) && Arrays.binarySearch(memberIndexes, i) >= 0) {
-                            if (i == memberIndexes[currentMember]) {
-                                //System.out.printf("Added coefficient to row, column %d, %d%n", i, j);
-                                constraint.setCoefficient(v, friendshipSize);
-                            } else {
-                                constraint.setCoefficient(v, -1);
-                            }
-                        }
-                    });
-                    constraintIndex++;
+            constraints[f] = createFriendshipConstraints(solver, vars, friendships[f], wildCols);
+        }
+        return constraints;
+    }
+
+    protected void writeConstraint5FriendshipRequirements(TeamSorterConstraintWriter writer) {
+        if (ignoreFriendships) return;
+        int[] wildCols = getWildColumns();
+        for (Friendship friendship : input.getFriendships()) {
+            writeFriendshipConstraints(writer, friendship, wildCols);
+        }
+    }
+
+    protected MPConstraint[] createFriendshipConstraints(MPSolver solver, MPVariable[][] vars, Friendship friendship, int[] wildCols) {
+        SolverConstraintWriter writer = new SolverConstraintWriter(solver, vars);
+        writeFriendshipConstraints(writer, friendship, wildCols);
+        return writer.getConstraints();
+    }
+
+    protected void writeFriendshipConstraints(TeamSorterConstraintWriter writer, Friendship friendship, int[] wildCols) {
+        int[] memberIndexes = friendship.getMemberIndexes();
+        int friendshipSize = memberIndexes.length - 1;
+        for (int m = 0; m < memberIndexes.length; m++) {
+            for (int t = 0; t < input.numbTeams(); t++) {
+                writer.addConstraint(0, 0, writer.keepsNames() ? String.format("member%dfriendshipteam%d", m, t) : null);
+                int[] teamCols = input.getColsOfTeam(t);
+                for (int i : memberIndexes) {
+                    double coefficient = i == memberIndexes[m] ? friendshipSize : -1;
+                    for (int j : teamCols) {
+                        writer.setCoefficient(i, j, coefficient);
+                    }
+                    for (int j : wildCols) {
+                        writer.setCoefficient(i, j, coefficient);
+                    }
                 }
             }
         }
-        return constraints;
+    }
+
+    // One variable per friendship and team, bounded by each friend's share of the team's columns,
+    // so it is the smallest of them: a concave, piecewise linear measure of how much of the
+    // friendship is on the team together. Teams some friend can't be placed on get none.
+    protected MPVariable[][] createFriendshipConcentrationVariables(MPSolver solver, MPVariable[][] vars) {
+        Friendship[] friendships = input.getFriendships();
+        MPVariable[][] concentrationVars = new MPVariable[friendships.length][input.numbTeams()];
+        for (int f = 0; f < friendships.length; f++) {
+            int[] memberIndexes = friendships[f].getMemberIndexes();
+            if (memberIndexes.length < 2) continue;
+            for (int t = 0; t < input.numbTeams(); t++) {
+                int[] teamCols = input.getColsOfTeam(t);
+                if (!canAllJoinTeam(vars, memberIndexes, teamCols)) continue;
+                MPVariable concentration = solver.makeNumVar(0, 1, "");
+                concentrationVars[f][t] = concentration;
+                for (int i : memberIndexes) {
+                    MPConstraint constraint = makeConstraint(solver, NEGATIVE_INFINITY, 0, "friendship%dteam%dmember%d", f, t, i);
+                    constraint.setCoefficient(concentration, 1);
+                    for (int j : teamCols) {
+                        if (vars[i][j] != null) constraint.setCoefficient(vars[i][j], -1);
+                    }
+                }
+            }
+        }
+        return concentrationVars;
+    }
+
+    protected boolean canAllJoinTeam(MPVariable[][] vars, int[] memberIndexes, int[] teamCols) {
+        for (int i : memberIndexes) {
+            boolean any = false;
+            for (int j : teamCols) {
+                if (vars[i][j] != null) {
+                    any = true;
+                    break;
+                }
+            }
+            if (!any) return false;
+        }
+        return true;
+    }
+
+    protected void setFriendshipConcentrationCoefficients(MPObjective objective, MPVariable[][] concentrationVars, int ... prefValues) {
+        if (concentrationVars.length == 0) return;
+        Friendship[] friendships = input.getFriendships();
+        double perFriend = friendshipWeight * (prefValues.length > 0 ? prefValues[0] : 1);
+        for (int f = 0; f < concentrationVars.length; f++) {
+            for (MPVariable concentration : concentrationVars[f]) {
+                if (concentration != null) objective.setCoefficient(concentration, perFriend * friendships[f].size());
+            }
+        }
+    }
+
+    protected int countVariables(MPVariable[][] vars) {
+        int count = 0;
+        for (MPVariable[] row : vars) {
+            for (MPVariable v : row) {
+                if (v != null) count++;
+            }
+        }
+        return count;
+    }
+
+    // Whether the friends' values for some team (counting the wild columns toward every team)
+    // differ, which is exactly when the friendship's constraints would be violated
+    protected boolean isFriendshipSplit(MPVariable[][] vars, Friendship friendship, int[] wildCols) {
+        int[] memberIndexes = friendship.getMemberIndexes();
+        double[][] teamValues = new double[memberIndexes.length][input.numbTeams()];
+        for (int i = 0; i < memberIndexes.length; i++) {
+            MPVariable[] row = vars[memberIndexes[i]];
+            double wild = 0;
+            for (int j : wildCols) {
+                if (row[j] != null) wild += row[j].solutionValue();
+            }
+            for (int t = 0; t < input.numbTeams(); t++) {
+                double value = wild;
+                for (int j : input.getColsOfTeam(t)) {
+                    if (row[j] != null) value += row[j].solutionValue();
+                }
+                teamValues[i][t] = value;
+            }
+        }
+        for (int i = 1; i < teamValues.length; i++) {
+            for (int t = 0; t < input.numbTeams(); t++) {
+                if (Math.abs(teamValues[i][t] - teamValues[0][t]) > TeamRoleSlots.TOLERANCE) return true;
+            }
+        }
+        return false;
+    }
+
+    // The name is only formatted when constraints are named, so the ints are not boxed otherwise
+    protected MPConstraint makeConstraint(MPSolver solver, double lb, double ub, String nameFormat, int a) {
+        return nameConstraints ? solver.makeConstraint(lb, ub, String.format(nameFormat, a)) : solver.makeConstraint(lb, ub);
+    }
+
+    protected MPConstraint makeConstraint(MPSolver solver, double lb, double ub, String nameFormat, int a, int b) {
+        return nameConstraints ? solver.makeConstraint(lb, ub, String.format(nameFormat, a, b)) : solver.makeConstraint(lb, ub);
+    }
+
+    protected MPConstraint makeConstraint(MPSolver solver, double lb, double ub, String nameFormat, int a, int b, int c) {
+        return nameConstraints ? solver.makeConstraint(lb, ub, String.format(nameFormat, a, b, c)) : solver.makeConstraint(lb, ub);
+    }
+
+    // Writes the column model's constraints straight into the solver, one native call per
+    // coefficient
+    protected class SolverConstraintWriter implements TeamSorterConstraintWriter {
+
+        protected final MPSolver solver;
+        protected final MPVariable[][] vars;
+        protected final List<MPConstraint> constraints = new ArrayList<>();
+        protected MPConstraint constraint;
+
+        protected SolverConstraintWriter(MPSolver solver, MPVariable[][] vars) {
+            this.solver = solver;
+            this.vars = vars;
+        }
+
+        @Override
+        public boolean keepsNames() {
+            return nameConstraints;
+        }
+
+        @Override
+        public void addConstraint(double lb, double ub, String name) {
+            constraint = name == null ? solver.makeConstraint(lb, ub) : solver.makeConstraint(lb, ub, name);
+            constraints.add(constraint);
+        }
+
+        @Override
+        public void setCoefficient(int m, int j, double coefficient) {
+            MPVariable v = vars[m][j];
+            if (v != null) constraint.setCoefficient(v, coefficient);
+        }
+
+        public MPConstraint[] getConstraints() {
+            return constraints.toArray(new MPConstraint[0]);
+        }
+    }
+
+    // Columns that do not belong to any team
+    protected int[] getWildColumns() {
+        int numbWild = 0;
+        for (int j = 0; j < input.numbAugmentedColumns(); j++) {
+            if (input.getJToTeam(j) < 0) numbWild++;
+        }
+        int[] wildCols = new int[numbWild];
+        int current = 0;
+        for (int j = 0; j < input.numbAugmentedColumns(); j++) {
+            if (input.getJToTeam(j) < 0) wildCols[current++] = j;
+        }
+        return wildCols;
     }
 
     protected MPObjective createObjectiveFunction(TeamSortingLogger logger, MPSolver solver, MPVariable[][] vars, int ... prefValues) {
         MPObjective objective = solver.objective();
-        int objAdder = useHardPreferenceObjectiveFunction ? input.numbMembers() * (input.getNumbPreferences() + 2) : 0;
+        int objAdder = getObjectiveAdder();
         logger.log(String.format("Adding flat value to preference objective function: %d", objAdder), 3);
         logger.log(String.format("Should use hard objective function: %b", useHardPreferenceObjectiveFunction), 3);
-        forEach(vars, (v, i, j) -> {
-            Member m = input.getMember(i);
-            String[] preferences = m.getPreferredTeams();
-            int teamCol = input.getJToTeam(j);
-            if (teamCol < 0) {
-                objective.setCoefficient(v, 1);
-                return;
-            }
-            for (int p = 0; p < preferences.length; p++) {
-                Integer currentPref = input.getTeamMap().get(preferences[p]);
-                if (currentPref != null && currentPref == teamCol) {
-                    if (p < prefValues.length)
-                        objective.setCoefficient(v, prefValues[p] + objAdder);
-                    return;
-                }
+        for (int m = 0; m < vars.length; m++) {
+            setMemberObjectiveCoefficients(objective, vars, m, objAdder, prefValues);
+        }
+        return objective;
+    }
+
+    protected int getObjectiveAdder() {
+        return useHardPreferenceObjectiveFunction ? input.numbMembers() * (input.getNumbPreferences() + 2) : 0;
+    }
+
+    protected void setMemberObjectiveCoefficients(MPObjective objective, MPVariable[][] vars, int m, int objAdder, int ... prefValues) {
+        MPVariable[] row = vars[m];
+        for (int j = 0; j < row.length; j++) {
+            if (row[j] != null) objective.setCoefficient(row[j], getObjectiveCoefficient(m, j, objAdder, prefValues));
+        }
+    }
+
+    protected double getObjectiveCoefficient(int m, int j, int objAdder, int ... prefValues) {
+        int p = input.getColumnPreferenceRank(m, j);
+        if (p < 0) {
+            return 1;
+        }
+        return p < prefValues.length ? prefValues[p] + objAdder : 0;
+    }
+
+    protected MPObjective createAggregatedObjectiveFunction(TeamSortingLogger logger, MPSolver solver, MPVariable[][] vars, TeamRoleSlots slots, int ... prefValues) {
+        MPObjective objective = solver.objective();
+        int objAdder = getObjectiveAdder();
+        logger.log(String.format("Adding flat value to preference objective function: %d", objAdder), 3);
+        logger.log(String.format("Should use hard objective function: %b", useHardPreferenceObjectiveFunction), 3);
+        for (int m = 0; m < vars.length; m++) {
+            for (int s = 0; s < slots.numbSlots(); s++) {
+                if (vars[m][s] == null) continue;
+                objective.setCoefficient(vars[m][s], getObjectiveCoefficient(m, slots.getRepresentativeColumn(s), objAdder, prefValues));
             }
-            objective.setCoefficient(v, 1);
-        });
+        }
         return objective;
     }
 
+    public static double[][] getSolutionValues(MPVariable[][] vars) {
+        double[][] values = new double[vars.length][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new double[vars[i].length];
+            for (int j = 0; j < values[i].length; j++) {
+                values[i][j] = vars[i][j] != null ? vars[i][j].solutionValue() : 0;
+            }
+        }
+        return values;
+    }
+
     public MPVariable[][] getColumns(MPVariable[][] vars, int ... cols) {
         MPVariable[][] slice = new MPVariable[vars.length][];
         for (int i = 0; i < slice.length; i++) {
@@ -342,9 +1301,11 @@ public class TeamSorterSolver {
         return slice;
     }
 
+    // Pruned cells are null and are skipped
     public void forEach(MPVariable[][] vars, MatrixVariableConsumer consumer) {
         for (int i = 0; i < vars.length; i++) {
             for (int j = 0; j < vars[i].length; j++) {
+                if (vars[i][j] == null) continue;
                 consumer.consume(vars[i][j], i, j);
             }
         }
@@ -0,0 +1,39 @@
+package pyerter.squirrel.tpp.core;
+
+import com.google.ortools.linearsolver.MPSolver;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Status of a TeamSorterResult, with the same values as MPSolver.ResultStatus. The OR-Tools enum
+ * reads its values through JNI when it is first used, so results of engines that never load the
+ * natives (see TeamSorterAuctionSolver) carry this one instead.
+ */
+public enum TeamSorterStatus {
+    OPTIMAL,
+    FEASIBLE,
+    INFEASIBLE,
+    UNBOUNDED,
+    ABNORMAL,
+    MODEL_INVALID,
+    NOT_SOLVED;
+
+    // Whether the result has a solution to read, possibly a suboptimal one
+    public boolean hasSolution() {
+        return this == OPTIMAL || this == FEASIBLE;
+    }
+
+    // Only called after an MPSolver solve, so the natives are already loaded
+    public static TeamSorterStatus of(MPSolver.ResultStatus status) {
+        return switch (status) {
+            case OPTIMAL -> OPTIMAL;
+            case FEASIBLE -> FEASIBLE;
+            case INFEASIBLE -> INFEASIBLE;
+            case UNBOUNDED -> UNBOUNDED;
+            case ABNORMAL -> ABNORMAL;
+            case MODEL_INVALID -> MODEL_INVALID;
+            default -> NOT_SOLVED;
+        };
+    }
+}
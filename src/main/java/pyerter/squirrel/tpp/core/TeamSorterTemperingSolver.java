@@ -0,0 +1,224 @@
+package pyerter.squirrel.tpp.core;
+
+import pyerter.squirrel.tpp.TeamSortingLogger;
+import pyerter.squirrel.tpp.friendship.Friendship;
+import pyerter.squirrel.tpp.friendship.FriendshipLocalSearch;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Solves without an LP by parallel tempering (replica-exchange simulated annealing) over each
+ * member's final (team, role), scored as TeamSorterResult scores it: preference values plus
+ * friendship concentration. Friends are rewarded for sharing a team instead of being required
+ * to, so every input with a seat assignment gets an answer within the time limit.
+ *
+ * The starting placement is the friendship-free optimum from TeamSorterAuctionSolver. Each
+ * replica is a FriendshipLocalSearch at its own temperature, run on a fork-join pool for a
+ * round of moves at a time. Between rounds, neighbouring temperatures are swapped with the
+ * usual Metropolis test, and the replicas publish their best placements through a
+ * compare-and-set, so getBestResult() can be read at any time. Replicas never leave more
+ * requirement seats empty than the start (see FriendshipLocalSearch), and a placement with fewer
+ * empty seats beats one with a higher score. No LP is built and no native library is loaded.
+ */
+public class TeamSorterTemperingSolver extends TeamSorterSolver {
+
+    protected int numbWorkers = Runtime.getRuntime().availableProcessors();
+    protected int numbReplicas = numbWorkers;
+    protected double timeLimitSeconds = 10;
+    protected double minTemperature = 0.05;
+    protected double maxTemperature = 4;
+    protected long roundAttempts = 10_000;
+    protected long seed = 0;
+
+    protected final AtomicReference<Placement> best = new AtomicReference<>();
+    protected FriendshipLocalSearch resultBuilder;
+    protected long startTime;
+    protected long rounds;
+    protected long exchanges;
+
+    // A published placement, never changed after it is created
+    protected static class Placement {
+        final int[] teams;
+        final int[] roles;
+        final double score;
+        final int unmetRoleRequirements;
+
+        Placement(int[] teams, int[] roles, double score, int unmetRoleRequirements) {
+            this.teams = teams;
+            this.roles = roles;
+            this.score = score;
+            this.unmetRoleRequirements = unmetRoleRequirements;
+        }
+
+        // Fewest empty requirement seats first, then the score
+        boolean isBetterThan(Placement other) {
+            if (unmetRoleRequirements != other.unmetRoleRequirements) return unmetRoleRequirements < other.unmetRoleRequirements;
+            return score > other.score;
+        }
+    }
+
+    public TeamSorterTemperingSolver(TeamSortingInput input) {
+        super(input, true);
+    }
+
+    public int getNumbWorkers() {
+        return numbWorkers;
+    }
+
+    public void setNumbWorkers(int numbWorkers) {
+        this.numbWorkers = numbWorkers;
+    }
+
+    public int getNumbReplicas() {
+        return numbReplicas;
+    }
+
+    public void setNumbReplicas(int numbReplicas) {
+        this.numbReplicas = Math.max(1, numbReplicas);
+    }
+
+    public double getTimeLimitSeconds() {
+        return timeLimitSeconds;
+    }
+
+    public void setTimeLimitSeconds(double timeLimitSeconds) {
+        this.timeLimitSeconds = timeLimitSeconds;
+    }
+
+    // Temperatures are spread geometrically between the two, in the units of the preference
+    // multipliers
+    public void setTemperatureRange(double minTemperature, double maxTemperature) {
+        this.minTemperature = minTemperature;
+        this.maxTemperature = Math.max(minTemperature, maxTemperature);
+    }
+
+    public long getRoundAttempts() {
+        return roundAttempts;
+    }
+
+    // Moves each replica tries between temperature exchanges
+    public void setRoundAttempts(long roundAttempts) {
+        this.roundAttempts = roundAttempts;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    @Override
+    public TeamSorterResult solve(TeamSortingLogger logger) {
+        startTime = System.nanoTime();
+        rounds = 0;
+        exchanges = 0;
+        best.set(null);
+
+        TeamSorterResult start = createStart(logger);
+        // friendships initialize lazily, so do it before the replicas share them
+        for (Friendship friendship : input.getFriendships()) friendship.initialize(input);
+
+        double[] temperatures = createTemperatures();
+        FriendshipLocalSearch[] replicas = new FriendshipLocalSearch[numbReplicas];
+        int[] replicaAtLevel = new int[numbReplicas];
+        for (int i = 0; i < numbReplicas; i++) {
+            replicas[i] = new FriendshipLocalSearch(start);
+            replicas[i].setSeed(seed + i);
+            replicas[i].setTemperature(temperatures[i]);
+            replicas[i].setUseHardPreferenceObjectiveFunction(useHardPreferenceObjectiveFunction);
+            replicas[i].initialize();
+            replicaAtLevel[i] = i;
+        }
+        resultBuilder = replicas[0];
+        publish(replicas[0]);
+        logger.log(String.format("%d members Parallel tempering: %d replicas at %.3f to %.3f, %d workers",
+                input.numbMembers(), numbReplicas, minTemperature, maxTemperature, numbWorkers), 3);
+
+        logger.log(String.format("    Tempering for %.1fs", timeLimitSeconds));
+        long deadline = startTime + (long) (timeLimitSeconds * 1e9);
+        Random random = new Random(seed);
+        ForkJoinPool pool = new ForkJoinPool(numbWorkers);
+        try {
+            while (System.nanoTime() < deadline) {
+                pool.submit(() -> Arrays.stream(replicas).parallel().forEach(replica -> {
+                    replica.run(roundAttempts);
+                    publish(replica);
+                })).join();
+                exchangeTemperatures(replicas, replicaAtLevel, random);
+                rounds++;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        logger.log(String.format("    Tempering finished after %d rounds with %d temperature exchanges, best score %.3f",
+                rounds, exchanges, best.get().score), 3);
+        TeamSorterResult result = getBestResult();
+        logUnmetRoleRequirements(logger, result);
+        return result;
+    }
+
+    // Friendship-free optimum, which is a full seat assignment found without an LP
+    protected TeamSorterResult createStart(TeamSortingLogger logger) {
+        TeamSorterAuctionSolver seeder = new TeamSorterAuctionSolver(input);
+        seeder.setUseHardPreferenceObjectiveFunction(useHardPreferenceObjectiveFunction);
+        seeder.setNumbWorkers(numbWorkers);
+        return seeder.solve(logger);
+    }
+
+    // Geometric from the coldest replica to the hottest
+    protected double[] createTemperatures() {
+        double[] temperatures = new double[numbReplicas];
+        double ratio = numbReplicas > 1 ? Math.pow(maxTemperature / minTemperature, 1.0 / (numbReplicas - 1)) : 1;
+        temperatures[0] = minTemperature;
+        for (int i = 1; i < numbReplicas; i++) temperatures[i] = temperatures[i - 1] * ratio;
+        return temperatures;
+    }
+
+    // Replaces the published placement if the replica's best beats it
+    protected void publish(FriendshipLocalSearch replica) {
+        Placement current = best.get();
+        if (current != null && (current.unmetRoleRequirements < replica.getBestUnmetRoleRequirements()
+                || current.unmetRoleRequirements == replica.getBestUnmetRoleRequirements() && current.score >= replica.getBestScore())) return;
+        Placement placement = new Placement(replica.getBestTeams().clone(), replica.getBestRoles().clone(),
+                replica.getBestScore(), replica.getBestUnmetRoleRequirements());
+        while (current == null || placement.isBetterThan(current)) {
+            if (best.compareAndSet(current, placement)) return;
+            current = best.get();
+        }
+    }
+
+    // Swaps the temperatures of neighbouring levels, alternating between even and odd pairs so
+    // every pair gets a chance. A hotter replica with a better score always moves down.
+    protected void exchangeTemperatures(FriendshipLocalSearch[] replicas, int[] replicaAtLevel, Random random) {
+        for (int level = (int) (rounds % 2); level + 1 < replicaAtLevel.length; level += 2) {
+            FriendshipLocalSearch colder = replicas[replicaAtLevel[level]];
+            FriendshipLocalSearch hotter = replicas[replicaAtLevel[level + 1]];
+            double exponent = (1 / colder.getTemperature() - 1 / hotter.getTemperature()) * (hotter.getScore() - colder.getScore());
+            if (exponent < 0 && random.nextDouble() >= Math.exp(exponent)) continue;
+            double temperature = colder.getTemperature();
+            colder.setTemperature(hotter.getTemperature());
+            hotter.setTemperature(temperature);
+            int replica = replicaAtLevel[level];
+            replicaAtLevel[level] = replicaAtLevel[level + 1];
+            replicaAtLevel[level + 1] = replica;
+            exchanges++;
+        }
+    }
+
+    /**
+     * The best placement published so far, safe to call from another thread while solving.
+     * @return null before the first placement is published
+     */
+    public TeamSorterResult getBestResult() {
+        Placement placement = best.get();
+        if (placement == null || resultBuilder == null) return null;
+        TeamSorterResult result = resultBuilder.createResult(placement.teams, placement.roles, TeamSorterStatus.FEASIBLE);
+        result.setSolveStatistics(placement.score, (System.nanoTime() - startTime) / 1_000_000, rounds);
+        return result;
+    }
+
+}
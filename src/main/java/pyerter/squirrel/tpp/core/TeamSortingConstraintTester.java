@@ -0,0 +1,125 @@
+package pyerter.squirrel.tpp.core;
+
+import com.google.ortools.Loader;
+import com.google.ortools.linearsolver.MPConstraint;
+import com.google.ortools.linearsolver.MPConstraintProto;
+import com.google.ortools.linearsolver.MPModelProto;
+import com.google.ortools.linearsolver.MPSolver;
+import com.google.ortools.linearsolver.MPVariable;
+import pyerter.squirrel.tpp.friendship.Friendship;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Regression check that the sparse friendship constraint builder produces the same
+// constraints as the original full-matrix builder.
+public class TeamSortingConstraintTester {
+
+    public static void main(String[] args) {
+        int count;
+        try {
+            count = Integer.parseInt(args[0]);
+        } catch (Exception e) {
+            count = 5;
+        }
+        Loader.loadNativeLibraries();
+        int failures = 0;
+        for (int i = 0; i < count; i++) {
+            if (!runTest()) failures++;
+        }
+        System.out.printf("%d of %d friendship constraint checks passed.%n", count - failures, count);
+    }
+
+    public static boolean runTest() {
+        int numbFriendships = 5 + ((int)(Math.random() * 11));
+        TeamSortingInput input = TeamSortingGeneratorInput.generateInput(75, 5, 3, 2,
+                2, 5, 7, 15, 1, 3,
+                numbFriendships, 2, 4);
+        if (input == null) {
+            System.out.printf("Err: Input object returned as null- ran into some error?%n");
+            return false;
+        }
+
+        TeamSorterSolver sorter = new TeamSorterSolver(input, false);
+        sorter.setIgnoreFriendships(false);
+
+        MPSolver sparseSolver = MPSolver.createSolver("GLOP");
+        MPVariable[][] sparseVars = sorter.createVariables(sparseSolver);
+        sorter.createConstraint5FriendshipRequirements(sparseSolver, sparseVars);
+
+        MPSolver denseSolver = MPSolver.createSolver("GLOP");
+        MPVariable[][] denseVars = sorter.createVariables(denseSolver);
+        createDenseFriendshipRequirements(sorter, denseSolver, denseVars);
+
+        MPModelProto sparse = sparseSolver.exportModelToProto();
+        MPModelProto dense = denseSolver.exportModelToProto();
+        if (sparse.getConstraintCount() != dense.getConstraintCount()) {
+            System.out.printf("Err: sparse builder created %d constraints, dense builder created %d%n",
+                    sparse.getConstraintCount(), dense.getConstraintCount());
+            return false;
+        }
+        long sparseCoefficients = 0;
+        long denseCoefficients = 0;
+        for (int c = 0; c < sparse.getConstraintCount(); c++) {
+            Map<Integer, Double> sparseRow = toCoefficientMap(sparse.getConstraint(c));
+            Map<Integer, Double> denseRow = toCoefficientMap(dense.getConstraint(c));
+            sparseCoefficients += sparseRow.size();
+            denseCoefficients += denseRow.size();
+            if (!sparseRow.equals(denseRow)) {
+                System.out.printf("Err: constraint %d (%s) differs: %d coefficients sparse, %d coefficients dense%n",
+                        c, sparse.getConstraint(c).getName(), sparseRow.size(), denseRow.size());
+                return false;
+            }
+        }
+        System.out.printf("Friendships (%d): %d constraints, %d coefficients sparse, %d coefficients dense%n",
+                input.numbFriendships(), sparse.getConstraintCount(), sparseCoefficients, denseCoefficients);
+        return sparseCoefficients == denseCoefficients;
+    }
+
+    // Original full-matrix construction of the friendship constraints, kept only as the reference
+    // the sparse builder in TeamSorterSolver is checked against
+    protected static MPConstraint[][] createDenseFriendshipRequirements(TeamSorterSolver sorter, MPSolver solver, MPVariable[][] vars) {
+        TeamSortingInput input = sorter.getInput();
+        Friendship[] friendships = input.getFriendships();
+        MPConstraint[][] constraints = new MPConstraint[friendships.length][];
+        for (int f = 0; f < constraints.length; f++) {
+            Member[] members = friendships[f].getMembers();
+            int[] memberIndexes = Arrays.stream(members).mapToInt(m -> input.getMemberIndex(m)).toArray();
+            Arrays.sort(memberIndexes);
+            int friendshipSize = members.length - 1;
+            MPConstraint[] friendshipConstraints = new MPConstraint[members.length * input.numbTeams()];
+            constraints[f] = friendshipConstraints;
+            int constraintIndex = 0;
+            for (int m = 0; m < members.length; m++) {
+                for (int t = 0; t < input.numbTeams(); t++) {
+                    MPConstraint constraint = solver.makeConstraint(0, 0, String.format("member%dfriendshipteam%d", m, t));
+                    friendshipConstraints[constraintIndex] = constraint;
+                    int[] teamCols = input.getColsOfTeam(t);
+                    int currentMember = m;
+                    sorter.forEach(vars, (v, i, j) -> {
+                        if ((Arrays.binarySearch(teamCols, j) >= 0 || input.getJToTeam(j) < 0) && Arrays.binarySearch(memberIndexes, i) >= 0) {
+                            if (i == memberIndexes[currentMember]) {
+                                constraint.setCoefficient(v, friendshipSize);
+                            } else {
+                                constraint.setCoefficient(v, -1);
+                            }
+                        }
+                    });
+                    constraintIndex++;
+                }
+            }
+        }
+        return constraints;
+    }
+
+    protected static Map<Integer, Double> toCoefficientMap(MPConstraintProto constraint) {
+        Map<Integer, Double> coefficients = new TreeMap<>();
+        for (int i = 0; i < constraint.getVarIndexCount(); i++) {
+            if (constraint.getCoefficient(i) != 0)
+                coefficients.put(constraint.getVarIndex(i), constraint.getCoefficient(i));
+        }
+        return coefficients;
+    }
+
+}
@@ -4,8 +4,9 @@ import pyerter.squirrel.tpp.friendship.Friendship;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.random.RandomGenerator;
 import java.util.stream.IntStream;
 
 public class TeamSortingGeneratorInput {
@@ -18,6 +19,22 @@ public class TeamSortingGeneratorInput {
     }
 
     public static TeamSortingInput generateInput(int memberCount, int teamCount, int roleCount, int preferenceCount, int roleReqLB, int roleReqUB, int minCountLB, int minCountUB, int memberRoleLB, int memberRoleUB, int numbFriendships, int friendshipSizeLB, int friendshipSizeUB) {
+        Settings settings = new Settings();
+        settings.setCompletelyRandomFriends(_comepletelyRandomFriends);
+        settings.setUniformRandomMMinusQ(_uniformRandomMMinusQ);
+        return generateInput(new Random(), settings, memberCount, teamCount, roleCount, preferenceCount, roleReqLB, roleReqUB, minCountLB, minCountUB, memberRoleLB, memberRoleUB, numbFriendships, friendshipSizeLB, friendshipSizeUB);
+    }
+
+    public static TeamSortingInput generateInput(long seed, Settings settings, int memberCount, int teamCount, int roleCount, int preferenceCount, int roleReqLB, int roleReqUB, int minCountLB, int minCountUB, int memberRoleLB, int memberRoleUB) {
+        return generateInput(new Random(seed), settings, memberCount, teamCount, roleCount, preferenceCount, roleReqLB, roleReqUB, minCountLB, minCountUB, memberRoleLB, memberRoleUB, 0, 0, 0);
+    }
+
+    public static TeamSortingInput generateInput(long seed, Settings settings, int memberCount, int teamCount, int roleCount, int preferenceCount, int roleReqLB, int roleReqUB, int minCountLB, int minCountUB, int memberRoleLB, int memberRoleUB, int numbFriendships, int friendshipSizeLB, int friendshipSizeUB) {
+        return generateInput(new Random(seed), settings, memberCount, teamCount, roleCount, preferenceCount, roleReqLB, roleReqUB, minCountLB, minCountUB, memberRoleLB, memberRoleUB, numbFriendships, friendshipSizeLB, friendshipSizeUB);
+    }
+
+    // All randomness is drawn from the given generator, so the same seed and settings always produce the same input
+    public static TeamSortingInput generateInput(RandomGenerator random, Settings settings, int memberCount, int teamCount, int roleCount, int preferenceCount, int roleReqLB, int roleReqUB, int minCountLB, int minCountUB, int memberRoleLB, int memberRoleUB, int numbFriendships, int friendshipSizeLB, int friendshipSizeUB) {
 
         // Ensure input is valid
         if (minCountUB * teamCount > memberCount) {
@@ -50,8 +67,8 @@ public class TeamSortingGeneratorInput {
         int minF = numbFriendships * friendshipSizeLB;
         int maxMMQ = Math.max(Math.max(maxTRR, maxTC), maxF);
         int minMMQ = Math.max(Math.max(minTRR, minTC), minF);
-        if (_uniformRandomMMinusQ) {
-            mmq = (int)(Math.random() * (maxMMQ - minMMQ + 1)) + minMMQ;
+        if (settings.isUniformRandomMMinusQ()) {
+            mmq = (int)(random.nextDouble() * (maxMMQ - minMMQ + 1)) + minMMQ;
         }
 
         // create members list (will store members later)
@@ -71,7 +88,7 @@ public class TeamSortingGeneratorInput {
             randRange = roleReqUB - roleReqLB + 1;
             for (int t = 0; t < teamCount; t++) {
                 for (int r = 0; r < roleCount; r++) {
-                    teamRoleRequirements[t][r] = (int) (Math.random() * randRange) + roleReqLB; // randomly generated
+                    teamRoleRequirements[t][r] = (int) (random.nextDouble() * randRange) + roleReqLB; // randomly generated
                     requiredMembers += teamRoleRequirements[t][r];
                 }
             }
@@ -87,9 +104,9 @@ public class TeamSortingGeneratorInput {
                     requiredMembers += roleReqLB;
                 }
             }
-            int remainingMMQ = (int)(Math.random() * (Math.min(mmq, maxTRR) - requiredMembers + 1));
+            int remainingMMQ = (int)(random.nextDouble() * (Math.min(mmq, maxTRR) - requiredMembers + 1));
             while (remainingMMQ > 0) {
-                int index = (int)(Math.random() * randRange);
+                int index = (int)(random.nextDouble() * randRange);
                 int tIndex = index % teamCount;
                 int rIndex = index / teamCount;
                 if (teamRoleRequirements[tIndex][rIndex] < roleReqUB) {
@@ -107,7 +124,7 @@ public class TeamSortingGeneratorInput {
             randRange = minCountUB - minCountLB + 1;
             for (int t = 0; t < teamCount; t++) {
                 int totalRoleRequirement = Arrays.stream(teamRoleRequirements[t]).reduce(0, Integer::sum);
-                minMemberCount[t] = Math.max(totalRoleRequirement, (int) (Math.random() * randRange) + minCountLB);
+                minMemberCount[t] = Math.max(totalRoleRequirement, (int) (random.nextDouble() * randRange) + minCountLB);
                 requiredMembers += minMemberCount[t];
             }
             if (requiredMembers > memberCount) {
@@ -122,7 +139,7 @@ public class TeamSortingGeneratorInput {
             }
             int remainingMMQ = Math.min(mmq, maxTC) - requiredMembers;
             while (remainingMMQ > 0) {
-                int index = (int)(Math.random() * randRange);
+                int index = (int)(random.nextDouble() * randRange);
                 if (minMemberCount[index] < minCountUB) {
                     minMemberCount[index]++;
                     remainingMMQ--;
@@ -137,21 +154,28 @@ public class TeamSortingGeneratorInput {
         int c = 0; // current count of team assignments for team t
         randRange = memberRoleUB - memberRoleLB + 1;
         List<Integer> friendshipSplits = new ArrayList<>();
+        int[] roleOrder = IntStream.range(0, roleCount).toArray(); // reused between members in streaming mode
+        int[] teamOrder = IntStream.range(0, teamCount).toArray();
         for (int m = 0; m < memberCount; m++) {
             // randomly select number of roles for this member
-            int numbRoles = (int)(Math.random() * randRange) + memberRoleLB;
+            int numbRoles = (int)(random.nextDouble() * randRange) + memberRoleLB;
             String[] mRoles; // roles for this member
             String[] mPrefs; // preferences for this member
-            if (numbRoles > 0) { // shuffle the roles list then store number of roles into member's list
-                List<String> list = new ArrayList<String>(List.of(roles));
-                Collections.shuffle(list);
-                mRoles = list.subList(0, numbRoles).toArray(String[]::new);
+            if (settings.isStreaming()) { // draw straight into the member's arrays
+                mRoles = sample(random, roleOrder, roles, numbRoles);
+                mPrefs = sample(random, teamOrder, teams, preferenceCount);
             } else {
-                mRoles = new String[0]; // no roles!
+                if (numbRoles > 0) { // shuffle the roles list then store number of roles into member's list
+                    List<String> list = new ArrayList<String>(List.of(roles));
+                    shuffle(list, random);
+                    mRoles = list.subList(0, numbRoles).toArray(String[]::new);
+                } else {
+                    mRoles = new String[0]; // no roles!
+                }
+                List<String> list = new ArrayList<>(List.of(teams)); // shuffle teams for preferences
+                shuffle(list, random);
+                mPrefs = list.subList(0, preferenceCount).toArray(String[]::new); // select preferences for teams
             }
-            List<String> list = new ArrayList<>(List.of(teams)); // shuffle teams for preferences
-            Collections.shuffle(list);
-            mPrefs = list.subList(0, preferenceCount).toArray(String[]::new); // select preferences for teams
             //System.out.printf("t(%d),r(%d),c(%d)%n", t, r, c);
             if (t < teamCount && teamRoleRequirements[t][r] > c) { // if we're still generating valid input for teams
                 if (numbRoles > 0) { // confirm that the required role is filled by this member
@@ -163,7 +187,7 @@ public class TeamSortingGeneratorInput {
                         }
                     }
                     if (!contained) // if not contained, set 1 randomly as the role
-                        mRoles[(int)(Math.random() * numbRoles)] = roles[r];
+                        mRoles[(int)(random.nextDouble() * numbRoles)] = roles[r];
                 } else { // if no roles, make sure valid role is assigned
                     numbRoles = 1;
                     mRoles = new String[]{ roles[r] };
@@ -176,7 +200,7 @@ public class TeamSortingGeneratorInput {
                     }
                 }
                 if (!contained && preferenceCount > 0) // if not, randomly swap a preference for the team
-                    mPrefs[(int)(Math.random() * preferenceCount)] = teams[t];
+                    mPrefs[(int)(random.nextDouble() * preferenceCount)] = teams[t];
                 c++;
 
                 // update counters
@@ -194,13 +218,15 @@ public class TeamSortingGeneratorInput {
             members.add(member); // add member
         }
         Friendship[] friendships;
-        if (numbFriendships > 0) {
+        if (numbFriendships > 0 && settings.isStreaming()) {
+            friendships = generateFriendshipsStreaming(random, settings, members, friendshipSplits, numbFriendships, friendshipSizeLB, friendshipSizeUB);
+        } else if (numbFriendships > 0) {
             System.out.printf("Friendship splits: %s%n", Arrays.toString(friendshipSplits.toArray()));
             friendships = new Friendship[numbFriendships];
             int[] friendshipSizes = new int[numbFriendships];
             if (mmq < 0) {
                 for (int f = 0; f < numbFriendships; f++) {
-                    friendshipSizes[f] = (int)(Math.random()*(friendshipSizeUB - friendshipSizeLB + 1)) + friendshipSizeLB;
+                    friendshipSizes[f] = (int)(random.nextDouble()*(friendshipSizeUB - friendshipSizeLB + 1)) + friendshipSizeLB;
                 }
             } else {
                 randRange = numbFriendships;
@@ -208,9 +234,9 @@ public class TeamSortingGeneratorInput {
                     friendshipSizes[f] = friendshipSizeLB;
                     requiredMembers += friendshipSizeLB;
                 }
-                int remainingMMQ = (int)(Math.random() * (Math.min(mmq, maxF) - requiredMembers + 1));
+                int remainingMMQ = (int)(random.nextDouble() * (Math.min(mmq, maxF) - requiredMembers + 1));
                 while (remainingMMQ > 0) {
-                    int index = (int)(Math.random() * randRange);
+                    int index = (int)(random.nextDouble() * randRange);
                     if (friendshipSizes[index] < friendshipSizeUB) {
                         friendshipSizes[index]++;
                         remainingMMQ--;
@@ -218,11 +244,11 @@ public class TeamSortingGeneratorInput {
                 }
             }
             for (int i = 0; i < numbFriendships; i++) {
-                int split = (int)(Math.random() * (friendshipSplits.size()));
+                int split = (int)(random.nextDouble() * (friendshipSplits.size()));
                 if (friendshipSplits.get(split) >= members.size()) split--;
                 int splitStart;
                 int splitEnd;
-                if (_comepletelyRandomFriends) {
+                if (settings.isCompletelyRandomFriends()) {
                     splitStart = 0;
                     splitEnd = memberCount;
                 } else {
@@ -231,11 +257,11 @@ public class TeamSortingGeneratorInput {
                 }
                 Integer[] possibleValues = IntStream.rangeClosed(splitStart, splitEnd - 1).boxed().toArray( Integer[]::new );
                 List<Integer> values = new ArrayList<>(List.of(possibleValues));
-                if (!_comepletelyRandomFriends && split < friendshipSplits.size() - 1) {
+                if (!settings.isCompletelyRandomFriends() && split < friendshipSplits.size() - 1) {
                     Integer[] anyValues = IntStream.rangeClosed(friendshipSplits.get(friendshipSplits.size() - 1), members.size() - 1).boxed().toArray(Integer[]::new);
                     values.addAll(List.of(anyValues));
                 }
-                Collections.shuffle(values);
+                shuffle(values, random);
                 int[] friends = new int[Math.min(friendshipSizes[i], values.size())];
                 String[] friendNames = new String[friends.length];
                 for (int f = 0; f < friends.length; f++) {
@@ -269,5 +295,101 @@ public class TeamSortingGeneratorInput {
         return new TeamSortingInput(members, teams, roles, preferenceCount, teamRoleRequirements, minMemberCount, friendships);
     }
 
+    // Draws friend groups from one shuffled order of member indexes so no group needs its own
+    // candidate list. Completely random friendships take disjoint runs of that order; otherwise
+    // each group keeps drawing until it has enough members from its team split or the shared tail.
+    protected static Friendship[] generateFriendshipsStreaming(RandomGenerator random, Settings settings, List<Member> members, List<Integer> friendshipSplits, int numbFriendships, int friendshipSizeLB, int friendshipSizeUB) {
+        int memberCount = members.size();
+        int[] order = IntStream.range(0, memberCount).toArray();
+        for (int i = memberCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+        }
+        boolean[] taken = new boolean[memberCount];
+        int anyStart = friendshipSplits.isEmpty() ? memberCount : friendshipSplits.get(friendshipSplits.size() - 1);
+        List<Friendship> friendships = new ArrayList<>(numbFriendships);
+        int next = 0;
+        for (int i = 0; i < numbFriendships && next < memberCount; i++) {
+            int size = (int)(random.nextDouble() * (friendshipSizeUB - friendshipSizeLB + 1)) + friendshipSizeLB;
+            int splitStart = 0;
+            int splitEnd = memberCount;
+            if (!settings.isCompletelyRandomFriends() && !friendshipSplits.isEmpty()) {
+                int split = (int)(random.nextDouble() * friendshipSplits.size());
+                splitStart = split > 0 ? friendshipSplits.get(split - 1) : 0;
+                splitEnd = friendshipSplits.get(split);
+            }
+            String[] friendNames = new String[size];
+            int found = 0;
+            for (int scan = next; scan < memberCount && found < size; scan++) {
+                int m = order[scan];
+                if (taken[m] || !((m >= splitStart && m < splitEnd) || m >= anyStart)) continue;
+                taken[m] = true;
+                friendNames[found++] = members.get(m).getName();
+            }
+            while (next < memberCount && taken[order[next]]) next++;
+            if (found < 2) continue;
+            if (found < size) friendNames = Arrays.copyOf(friendNames, found);
+            friendships.add(new Friendship("Friendship" + i, friendNames));
+        }
+        return friendships.toArray(Friendship[]::new);
+    }
+
+    // Picks count distinct values, shuffling the front of the reused order array in place
+    protected static String[] sample(RandomGenerator random, int[] order, String[] values, int count) {
+        String[] sampled = new String[count];
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(order.length - i);
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+            sampled[i] = values[order[i]];
+        }
+        return sampled;
+    }
+
+    // Same algorithm as Collections.shuffle, driven by any RandomGenerator
+    protected static <T> void shuffle(List<T> list, RandomGenerator random) {
+        for (int i = list.size(); i > 1; i--) {
+            int j = random.nextInt(i);
+            list.set(i - 1, list.set(j, list.get(i - 1)));
+        }
+    }
+
+    public static class Settings {
+
+        protected boolean completelyRandomFriends = true;
+        protected boolean uniformRandomMMinusQ = true;
+        protected boolean streaming = false;
+
+        public boolean isCompletelyRandomFriends() {
+            return completelyRandomFriends;
+        }
+
+        public void setCompletelyRandomFriends(boolean completelyRandomFriends) {
+            this.completelyRandomFriends = completelyRandomFriends;
+        }
+
+        public boolean isUniformRandomMMinusQ() {
+            return uniformRandomMMinusQ;
+        }
+
+        public void setUniformRandomMMinusQ(boolean uniformRandomMMinusQ) {
+            this.uniformRandomMMinusQ = uniformRandomMMinusQ;
+        }
+
+        public boolean isStreaming() {
+            return streaming;
+        }
+
+        // Streaming mode samples roles, preferences and friend groups into the final arrays
+        // without per-member list copies, for inputs with hundreds of thousands of members
+        public void setStreaming(boolean streaming) {
+            this.streaming = streaming;
+        }
+
+    }
+
 
 }
@@ -1,8 +1,10 @@
 package pyerter.squirrel.tpp.core;
 
 import pyerter.squirrel.tpp.friendship.Friendship;
+import pyerter.squirrel.tpp.friendship.MemberUnionFind;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Author: Porter Squires
@@ -21,13 +23,14 @@ public class TeamSortingInput {
     protected String[] memberNames;
     protected int minMembersPerTeam;
     protected int[][] teamRoleRequirements;
-    protected Map<Integer, Integer> augmentedTeamRoleIndex;
+    protected int[] augmentedTeamRoleIndex;
     protected int numbExplicitTeamRoles;
-    protected Map<Integer, Integer> jToTeam;
-    protected Map<Integer, Integer> jToRole;
+    protected int[] jToTeam;
+    protected int[] jToRole;
     protected int[][] colsOfTeam;
     protected int[][] colsOfRole;
     protected int numbPreferences;
+    protected short[] preferenceRanks;
     protected Map<String, Friendship> nameToFriends;
     protected int friendCount;
     protected Friendship[] friendships;
@@ -57,32 +60,10 @@ public class TeamSortingInput {
         this.teamRoleRequirements = teamRoleRequirements;
         initializeColumnIndexes(minimumMemberCounts);
         this.numbPreferences = numbPreferences;
+        initializePreferenceRanks();
 
         // create friendship groups
-        nameToFriends = new HashMap<>();
-        HashMap<Friendship, String> reverseNameToFriends = new HashMap<>();
-        for (int i = 0; i < friendships.length; i++) {
-            Friendship current = friendships[i];
-            String[] friends = current.getFriends();
-            for (int j = 0; j < friends.length; j++) {
-                Friendship mapped = nameToFriends.putIfAbsent(friends[j], current);
-                if (mapped != null && !mapped.equals(current)) { // not nul and occupied by something else, so merge friendship
-                    Friendship merged = Friendship.merge(mapped, current, String.format("M<%s,%s>", mapped.getFriendshipName(), current.getFriendshipName()));
-                    for (int f = 0; f < merged.getFriends().length; f++) {
-                        nameToFriends.put(merged.getFriends()[f], merged);
-                    }
-                    current = merged;
-                }
-            }
-        }
-        int numbKeys = nameToFriends.keySet().size();
-        for (String k : nameToFriends.keySet()) {
-            reverseNameToFriends.putIfAbsent(nameToFriends.get(k), k);
-        }
-
-        friendCount = reverseNameToFriends.keySet().size();
-        reverseNameToFriends.keySet().forEach(f -> f.initialize(this));
-        this.friendships = reverseNameToFriends.keySet().toArray(Friendship[]::new);
+        initializeFriendships(friendships);
         // System.out.printf("Number friendships: %d%n", friendships.length);
         if (friendships.length > 0) {
             System.out.printf("Friendships: %s%n", Arrays.toString(Arrays.stream(this.friendships)
@@ -94,6 +75,87 @@ public class TeamSortingInput {
         }
     }
 
+    // Friendships that share a member are merged into one group. Members are joined with a
+    // union-find over their rows, so each declaration is only visited once, and the groups come
+    // out in the order of their first declaration.
+    protected void initializeFriendships(Friendship[] declared) {
+        nameToFriends = new HashMap<>();
+        MemberUnionFind unionFind = new MemberUnionFind(members.size());
+        int[][] declaredRows = new int[declared.length][];
+        for (int i = 0; i < declared.length; i++) {
+            declaredRows[i] = Arrays.stream(declared[i].getFriends())
+                    .mapToInt(this::findMemberIndex)
+                    .filter(m -> m >= 0)
+                    .sorted()
+                    .distinct()
+                    .toArray();
+            for (int k = 1; k < declaredRows[i].length; k++) {
+                unionFind.union(declaredRows[i][0], declaredRows[i][k]);
+            }
+        }
+
+        int[] groupOfRoot = new int[members.size()];
+        Arrays.fill(groupOfRoot, -1);
+        List<List<Integer>> declarationsOfGroup = new ArrayList<>();
+        for (int i = 0; i < declared.length; i++) {
+            if (declaredRows[i].length == 0) continue;
+            int root = unionFind.find(declaredRows[i][0]);
+            if (groupOfRoot[root] < 0) {
+                groupOfRoot[root] = declarationsOfGroup.size();
+                declarationsOfGroup.add(new ArrayList<>());
+            }
+            declarationsOfGroup.get(groupOfRoot[root]).add(i);
+        }
+
+        // every member in a set with a group was named by one of its declarations, and visiting
+        // members in order keeps each group's rows ascending
+        int numbGroups = declarationsOfGroup.size();
+        int[] groupSizes = new int[numbGroups];
+        int[] memberGroup = new int[members.size()];
+        for (int m = 0; m < members.size(); m++) {
+            memberGroup[m] = groupOfRoot[unionFind.find(m)];
+            if (memberGroup[m] >= 0) groupSizes[memberGroup[m]]++;
+        }
+        int[][] groupRows = new int[numbGroups][];
+        for (int g = 0; g < numbGroups; g++) {
+            groupRows[g] = new int[groupSizes[g]];
+            groupSizes[g] = 0; // now use as a counter to indicate next point in array while adding rows
+        }
+        for (int m = 0; m < members.size(); m++) {
+            if (memberGroup[m] >= 0) groupRows[memberGroup[m]][groupSizes[memberGroup[m]]++] = m;
+        }
+
+        this.friendships = new Friendship[numbGroups];
+        for (int g = 0; g < numbGroups; g++) {
+            // repeated declarations of the same friendship don't count as a merge
+            List<Friendship> sources = declarationsOfGroup.get(g).stream()
+                    .map(i -> declared[i])
+                    .distinct()
+                    .toList();
+            int[] rows = groupRows[g];
+            Friendship friendship;
+            Friendship first = sources.get(0);
+            if (sources.size() == 1 && first.getFriends().length == rows.length && !first.isInitialized()) {
+                friendship = first;
+            } else {
+                String name = sources.size() == 1 ? first.getFriendshipName() : sources.stream()
+                        .map(Friendship::getFriendshipName)
+                        .collect(Collectors.joining(",", "M<", ">"));
+                String[] friends = new String[rows.length];
+                for (int i = 0; i < rows.length; i++) {
+                    friends[i] = memberNames[rows[i]];
+                }
+                friendship = new Friendship(name, friends);
+            }
+            friendship.initialize(this, rows);
+            for (int m : rows) {
+                nameToFriends.put(memberNames[m], friendship);
+            }
+            this.friendships[g] = friendship;
+        }
+        friendCount = numbGroups;
+    }
+
     protected void initializeColumnIndexes(int[] minimumMemberCounts) {
         colsOfRole = new int[roles.length][];
         colsOfTeam = new int[teams.length][];
@@ -113,22 +175,24 @@ public class TeamSortingInput {
             colsOfTeam[i] = new int[Math.max(numbColsOfTeam[i], minimumMemberCounts[i])];
             numbColsOfTeam[i] = 0; // now use as a counter to indicate next point in array while adding indexes
         }
-        this.augmentedTeamRoleIndex = new HashMap<>();
-        jToRole = new HashMap<>();
-        jToTeam = new HashMap<>();
+        int numbColumns = 0;
+        for (int i = 0; i < colsOfTeam.length; i++) {
+            numbColumns += colsOfTeam[i].length;
+        }
+        initializeColumnLookups(Math.max(numbAugmentedColumns(), numbColumns));
         int colIndex = 0;
         int[] teamMinMemberColumns = new int[teams.length];
         for (int i = 0; i < teamRoleRequirements.length; i++) {
             for (int j = 0; j < teamRoleRequirements[i].length; j++) {
                 int teamRoleIndex = i * numbRoles() + j;
-                augmentedTeamRoleIndex.put(teamRoleIndex, colIndex);
+                augmentedTeamRoleIndex[teamRoleIndex] = colIndex;
                 for (int numbRole = 0; numbRole < teamRoleRequirements[i][j]; numbRole++) {
                     colsOfRole[j][numbColsOfRole[j]] = colIndex;
                     colsOfTeam[i][numbColsOfTeam[i]] = colIndex;
                     numbColsOfRole[j]++;
                     numbColsOfTeam[i]++;
-                    jToTeam.put(colIndex, i);
-                    jToRole.put(colIndex, j);
+                    jToTeam[colIndex] = i;
+                    jToRole[colIndex] = j;
                     teamMinMemberColumns[i]++;
                     colIndex++;
                 }
@@ -138,7 +202,7 @@ public class TeamSortingInput {
             while (teamMinMemberColumns[i] < minimumMemberCounts[i]) {
                 colsOfTeam[i][numbColsOfTeam[i]] = colIndex;
                 numbColsOfTeam[i]++;
-                jToTeam.put(colIndex, i);
+                jToTeam[colIndex] = i;
                 teamMinMemberColumns[i]++;
                 colIndex++;
             }
@@ -146,6 +210,34 @@ public class TeamSortingInput {
         this.numbExplicitTeamRoles = colIndex;
     }
 
+    // Column lookups are dense arrays indexed by column, -1 where a column has no team or role
+    protected void initializeColumnLookups(int numbColumns) {
+        augmentedTeamRoleIndex = new int[numbTeams() * numbRoles()];
+        jToTeam = new int[numbColumns];
+        jToRole = new int[numbColumns];
+        Arrays.fill(augmentedTeamRoleIndex, -1);
+        Arrays.fill(jToTeam, -1);
+        Arrays.fill(jToRole, -1);
+    }
+
+    // Preference ranks are stored row-major as [member * numbTeams() + team], -1 where the team is not preferred
+    protected void initializePreferenceRanks() {
+        preferenceRanks = new short[numbMembers() * numbTeams()];
+        for (int m = 0; m < numbMembers(); m++) {
+            updatePreferenceRanks(m);
+        }
+    }
+
+    protected void updatePreferenceRanks(int member) {
+        int offset = member * numbTeams();
+        Arrays.fill(preferenceRanks, offset, offset + numbTeams(), (short) -1);
+        String[] preferences = members.get(member).getPreferredTeams();
+        for (int p = preferences.length - 1; p >= 0; p--) { // earliest listing of a team wins
+            Integer t = teamMap.get(preferences[p]);
+            if (t != null) preferenceRanks[offset + t] = (short) p;
+        }
+    }
+
     public int numbMembers() {
         return members.size();
     }
@@ -194,6 +286,12 @@ public class TeamSortingInput {
         return memberMap.get(name);
     }
 
+    // -1 when there is no member with that name
+    public int findMemberIndex(String name) {
+        Integer index = memberMap.get(name);
+        return index == null ? -1 : index;
+    }
+
     public Member getMember(String name) {
         return members.get(memberMap.get(name));
     }
@@ -202,6 +300,17 @@ public class TeamSortingInput {
         return memberMap.get(m.getName());
     }
 
+    // Replaces the member with the same name, e.g. after their preferences or roles changed.
+    // Returns the row of the replaced member.
+    public int replaceMember(Member member) {
+        int index = memberMap.get(member.getName());
+        members.set(index, member);
+        updatePreferenceRanks(index);
+        Friendship friendship = nameToFriends.get(member.getName());
+        if (friendship != null) friendship.replaceMember(member);
+        return index;
+    }
+
     public Map<String, Integer> getTeamMap() {
         return teamMap;
     }
@@ -219,13 +328,11 @@ public class TeamSortingInput {
     }
 
     public int getJToTeam(int j) {
-        Integer t = jToTeam.get(j);
-        return t != null ? t : -1;
+        return j >= 0 && j < jToTeam.length ? jToTeam[j] : -1;
     }
 
     public int getJToRole(int j) {
-        Integer r = jToRole.get(j);
-        return r != null ? r : -1;
+        return j >= 0 && j < jToRole.length ? jToRole[j] : -1;
     }
 
     public int[] getColsOfTeam(int t) {
@@ -327,6 +434,15 @@ public class TeamSortingInput {
         return Arrays.toString(Arrays.stream(getMemberNames()).map(m -> "\"" + m + "\"").toArray(String[]::new)).replace(",", "");
     }
 
+    // Rank of the team in the member's preferences (0 is best), -1 if not preferred or the team is -1
+    public int getPreferenceRank(int member, int team) {
+        return team >= 0 ? preferenceRanks[member * teams.length + team] : -1;
+    }
+
+    public int getColumnPreferenceRank(int member, int j) {
+        return getPreferenceRank(member, getJToTeam(j));
+    }
+
     public int[] getMemberPreferences(int member) {
         return members.get(member).getTeamEncodings(teamMap);
     }
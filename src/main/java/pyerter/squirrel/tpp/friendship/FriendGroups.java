@@ -0,0 +1,119 @@
+package pyerter.squirrel.tpp.friendship;
+
+import pyerter.squirrel.tpp.core.TeamRoleSlots;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+
+import java.util.Arrays;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * The friendships of an input as groups of member rows, for models that place each group as a
+ * whole instead of constraining its members to match. Groups are indexed like the input's
+ * friendships, which are already merged so no member is in two of them. A group's "teams" are
+ * numbered 0 to numbTeams() - 1 for the real teams and numbTeams() for the wild columns.
+ */
+public class FriendGroups {
+
+    protected TeamSortingInput input;
+    protected TeamRoleSlots slots;
+    protected int[][] groups;
+    protected int[] memberGroup;
+    protected int[][] memberRoles;
+
+    public FriendGroups(TeamSortingInput input, TeamRoleSlots slots) {
+        this.input = input;
+        this.slots = slots;
+        Friendship[] friendships = input.getFriendships();
+        groups = new int[friendships.length][];
+        memberGroup = new int[input.numbMembers()];
+        Arrays.fill(memberGroup, -1);
+        memberRoles = new int[input.numbMembers()][];
+        for (int m = 0; m < memberRoles.length; m++) {
+            memberRoles[m] = input.getMemberRoles(m).clone();
+            Arrays.sort(memberRoles[m]);
+        }
+        for (int g = 0; g < groups.length; g++) {
+            groups[g] = friendships[g].getMemberIndexes();
+            for (int m : groups[g]) memberGroup[m] = g;
+        }
+    }
+
+    public int numbGroups() {
+        return groups.length;
+    }
+
+    public int[] getMembers(int g) {
+        return groups[g];
+    }
+
+    public int size(int g) {
+        return groups[g].length;
+    }
+
+    // Group of the member, -1 if the member isn't in one
+    public int getGroup(int m) {
+        return memberGroup[m];
+    }
+
+    public boolean isGrouped(int m) {
+        return memberGroup[m] >= 0;
+    }
+
+    public int wildTeam() {
+        return input.numbTeams();
+    }
+
+    // Slots of a team, or the wild slots for wildTeam()
+    public int[] getSlotsOfTeam(int t) {
+        return t < input.numbTeams() ? slots.getSlotsOfTeam(t) : slots.getWildSlots();
+    }
+
+    // Seats of a team, or the wild seats for wildTeam()
+    public int numbSeats(int t) {
+        int seats = 0;
+        for (int s : getSlotsOfTeam(t)) seats += slots.getCapacity(s);
+        return seats;
+    }
+
+    // Slots of a team that require a role
+    public int[] getRoleSlotsOfTeam(int t) {
+        return Arrays.stream(getSlotsOfTeam(t)).filter(s -> slots.getRole(s) >= 0).toArray();
+    }
+
+    // Slots each member of the group can fill, as bits of the given slots (at most 63)
+    public long[] getRoleMasks(int g, int[] roleSlots) {
+        long[] masks = new long[groups[g].length];
+        for (int i = 0; i < masks.length; i++) {
+            for (int k = 0; k < roleSlots.length; k++) {
+                if (canFill(groups[g][i], roleSlots[k])) masks[i] |= 1L << k;
+            }
+        }
+        return masks;
+    }
+
+    // Whether the member has the slot's role, slots without a role can be filled by anyone
+    public boolean canFill(int m, int slot) {
+        int role = slots.getRole(slot);
+        return role < 0 || Arrays.binarySearch(memberRoles[m], role) >= 0;
+    }
+
+    // Whether every member of the group can fill some slot of the team
+    public boolean canJoinTeam(int g, int t) {
+        int[] teamSlots = getSlotsOfTeam(t);
+        if (teamSlots.length == 0) return false;
+        for (int m : groups[g]) {
+            boolean fits = false;
+            for (int s : teamSlots) {
+                if (canFill(m, s)) {
+                    fits = true;
+                    break;
+                }
+            }
+            if (!fits) return false;
+        }
+        return true;
+    }
+
+}
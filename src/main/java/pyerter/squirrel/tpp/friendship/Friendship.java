@@ -4,7 +4,6 @@ import pyerter.squirrel.tpp.core.Member;
 import pyerter.squirrel.tpp.core.TeamSortingInput;
 
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * Author: Porter Squires
@@ -17,11 +16,14 @@ public class Friendship {
     protected String friendshipName;
     protected String[] friends;
     protected Member[] members;
+    protected int[] memberIndexes;
+    protected int hash;
 
     public Friendship(String friendshipName, String ... friends) {
         this.friendshipName = friendshipName;
         this.friends = friends;
         Arrays.sort(this.friends);
+        this.hash = 31 * ignoreCaseHash(friendshipName) + Arrays.hashCode(this.friends);
     }
 
     public String[] getFriends() {
@@ -48,19 +50,66 @@ public class Friendship {
         return members;
     }
 
+    // Friends that are not members of the input are left out
     public void initialize(TeamSortingInput input) {
         if (this.members != null) return;
-        List<Member> memberList = input.getMembers();
-        this.members = memberList.stream()
-                .filter(m -> Arrays.binarySearch(this.friends, m.getName()) >= 0)
-                .toArray(Member[]::new);
+        int[] rows = Arrays.stream(friends)
+                .mapToInt(input::findMemberIndex)
+                .filter(i -> i >= 0)
+                .sorted()
+                .distinct()
+                .toArray();
+        initialize(input, rows);
     }
 
-    public boolean equals(Friendship friendship) {
-        return friendshipName.equalsIgnoreCase(friendship.friendshipName) &&
+    // For when the rows are already known, they must be sorted and distinct
+    public void initialize(TeamSortingInput input, int[] memberIndexes) {
+        if (this.members != null) return;
+        this.memberIndexes = memberIndexes;
+        this.members = new Member[memberIndexes.length];
+        for (int i = 0; i < memberIndexes.length; i++) {
+            members[i] = input.getMember(memberIndexes[i]);
+        }
+    }
+
+    // Rows of the members in the input, in the same order as getMembers()
+    public int[] getMemberIndexes() {
+        return memberIndexes;
+    }
+
+    public void replaceMember(Member member) {
+        if (members == null) return;
+        for (int i = 0; i < members.length; i++) {
+            if (members[i].getName().equals(member.getName())) {
+                members[i] = member;
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Friendship)) return false;
+        Friendship friendship = (Friendship) o;
+        return hash == friendship.hash &&
+                friendshipName.equalsIgnoreCase(friendship.friendshipName) &&
                 Arrays.equals(friends, friendship.friends);
     }
 
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    // Folds case the same way equalsIgnoreCase compares characters
+    protected static int ignoreCaseHash(String s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        return h;
+    }
+
     public boolean isInitialized() {
         return members != null;
     }
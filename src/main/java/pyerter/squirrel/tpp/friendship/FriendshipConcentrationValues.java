@@ -13,11 +13,8 @@ public class FriendshipConcentrationValues {
         team = t;
         this.friendship = friendship;
         int teamObjectiveValue = 0;
-        int[] memberRows = new int[friendship.getFriends().length];
-        for (int i = 0; i < memberRows.length; i++) {
-            memberRows[i] = input.getMemberIndex(friendship.getFriends()[i]);
-        }
-        for (int m : memberRows) {
+        friendship.initialize(input);
+        for (int m : friendship.getMemberIndexes()) {
             for (int col : input.getColsOfTeam(t)) {
                 objectiveValue += solution[m][col];
             }
@@ -0,0 +1,452 @@
+package pyerter.squirrel.tpp.friendship;
+
+import pyerter.squirrel.tpp.core.AssignmentScore;
+import pyerter.squirrel.tpp.core.MemberAssignment;
+import pyerter.squirrel.tpp.core.TeamSorterResult;
+import pyerter.squirrel.tpp.core.TeamSorterStatus;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Hill climbs from a rounded result with member swaps between teams and moves that pull a whole
+ * friend group onto one team, scored as the result scores them: preference values plus the
+ * squared concentration of each friendship. Scores are kept in an AssignmentScore, so each
+ * relocated member is scored in O(1).
+ *
+ * Seats are counted per (team, role) cell with the capacity of the input's columns for that cell.
+ * Members beyond a cell's capacity sit on wild columns, which belong to no team, so the number of
+ * members over capacity is kept at or below the number of wild columns (or where the rounding
+ * left it, if that was already over). Every column is a seat that has to be filled, so moves that
+ * leave more team-role requirement seats empty (see TeamSorterResult.countUnmetRoleRequirements())
+ * or more teams short of their minimum size are undone as well.
+ *
+ * With a temperature above 0, worse moves are also accepted with probability exp(delta / T), as
+ * in simulated annealing, and the best placement seen is kept separately from the current one.
+ * The best placement is the one with the fewest empty requirement seats, then the highest score.
+ */
+public class FriendshipLocalSearch {
+
+    public static final double TOLERANCE = 0.000001;
+
+    protected TeamSorterResult result;
+    protected TeamSortingInput input;
+    protected int[] preferenceMultipliers;
+    protected long seed = 0;
+    protected int maxStaleAttempts;
+    protected int swapCandidates = 16;
+    protected double temperature = 0;
+    protected boolean useHardPreferenceObjectiveFunction = false;
+
+    // search state
+    protected Random random;
+    protected int numbRoles;
+    protected AssignmentScore assignmentScore;
+    protected boolean[][] memberHasRole;
+    protected int[][] preferredTeams;
+    protected int[] occupancy;
+    protected int[] capacity;
+    protected int overflow;
+    protected int allowedOverflow;
+    protected int[] required;
+    protected int[] filled;
+    protected int unmetRoleRequirements;
+    protected int committedUnmetRoleRequirements;
+    protected int[] teamMinimums;
+    protected int teamShortfall;
+    protected int committedTeamShortfall;
+    protected List<List<Integer>> teamMembers;
+    protected int[] teamPositions;
+    protected double initialScore;
+    protected int[] bestTeam;
+    protected int[] bestRole;
+    protected double bestScore;
+    protected int bestUnmetRoleRequirements;
+    protected int[] undoLog;
+    protected int undoSize;
+    protected long attempts;
+    protected long acceptedMoves;
+
+    public FriendshipLocalSearch(TeamSorterResult result) {
+        this.result = result;
+        this.input = result.getInput();
+        this.preferenceMultipliers = result.getPreferenceMultipliers();
+        maxStaleAttempts = 50 * input.numbMembers();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getMaxStaleAttempts() {
+        return maxStaleAttempts;
+    }
+
+    // Stop early after this many moves in a row that didn't improve the score
+    public void setMaxStaleAttempts(int maxStaleAttempts) {
+        this.maxStaleAttempts = maxStaleAttempts;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+
+    // 0 only accepts improving moves
+    public void setTemperature(double temperature) {
+        this.temperature = temperature;
+    }
+
+    public boolean isUseHardPreferenceObjectiveFunction() {
+        return useHardPreferenceObjectiveFunction;
+    }
+
+    // Same as the solver's flag: under the hard objective members may also go to teams they did
+    // not prefer, as the model's eligible columns allow
+    public void setUseHardPreferenceObjectiveFunction(boolean useHardPreferenceObjectiveFunction) {
+        this.useHardPreferenceObjectiveFunction = useHardPreferenceObjectiveFunction;
+    }
+
+    public double getInitialScore() {
+        return initialScore;
+    }
+
+    public double getScore() {
+        return assignmentScore.getScore();
+    }
+
+    public double getBestScore() {
+        return bestScore;
+    }
+
+    // Final team of each member in the best placement seen, -1 for members without one
+    public int[] getBestTeams() {
+        return bestTeam;
+    }
+
+    public int[] getBestRoles() {
+        return bestRole;
+    }
+
+    // Requirement seats of the current placement that no member with the role holds
+    public int getUnmetRoleRequirements() {
+        return unmetRoleRequirements;
+    }
+
+    public int getBestUnmetRoleRequirements() {
+        return bestUnmetRoleRequirements;
+    }
+
+    // Members the teams of the current placement are short of their minimum sizes, in total
+    public int getTeamShortfall() {
+        return teamShortfall;
+    }
+
+    public long getAttempts() {
+        return attempts;
+    }
+
+    public long getAcceptedMoves() {
+        return acceptedMoves;
+    }
+
+    /**
+     * Improves the result's final assignments until the time budget runs out or no move has
+     * helped for getMaxStaleAttempts() tries in a row.
+     * @param timeBudgetMillis wall time to search for
+     * @return a new result with the improved final assignments, the given result is not changed
+     */
+    public TeamSorterResult improve(long timeBudgetMillis) {
+        initialize();
+        long deadline = System.nanoTime() + timeBudgetMillis * 1_000_000;
+        int stale = 0;
+        while (stale < maxStaleAttempts && assignmentScore.numbMembers() > 0) {
+            if ((attempts & 255) == 0 && System.nanoTime() > deadline) break;
+            stale = step() ? 0 : stale + 1;
+        }
+        return createResult(bestTeam, bestRole, result.getStatus());
+    }
+
+    // Tries the given number of moves, for callers that schedule the search themselves
+    public void run(long numbAttempts) {
+        for (long i = 0; i < numbAttempts && assignmentScore.numbMembers() > 0; i++) step();
+    }
+
+    // Tries one random move, returns whether it was kept
+    public boolean step() {
+        attempts++;
+        int m = random.nextInt(assignmentScore.numbMembers());
+        if (assignmentScore.getTeam(m) < 0) return false;
+        int g = assignmentScore.getGroup(m);
+        int[] group = assignmentScore.getGroupMembers(g);
+        boolean accepted;
+        if (group.length > 1 && random.nextBoolean()) {
+            // pull the group onto the team one of its members is on
+            int friend = group[random.nextInt(group.length)];
+            accepted = tryGroupMove(g, assignmentScore.getTeam(friend));
+        } else if (random.nextBoolean()) {
+            accepted = trySwap(m);
+        } else {
+            accepted = tryGroupMove(g, randomPreferredTeam(m));
+        }
+        if (accepted) {
+            acceptedMoves++;
+            // fewest empty requirement seats first, as for the rounding ensemble, then the score
+            if (unmetRoleRequirements < bestUnmetRoleRequirements || assignmentScore.getScore() > bestScore + TOLERANCE) {
+                assignmentScore.copyTo(bestTeam, bestRole);
+                bestScore = assignmentScore.getScore();
+                bestUnmetRoleRequirements = unmetRoleRequirements;
+            }
+        }
+        return accepted;
+    }
+
+    // Sets up the search state from the result, called by improve()
+    public void initialize() {
+        random = new Random(seed);
+        result.finalizeAssignments();
+        // a score of its own, the result's is left as it was
+        assignmentScore = AssignmentScore.of(input, preferenceMultipliers, result.getAssignments());
+        int numbMembers = input.numbMembers();
+        int numbTeams = input.numbTeams();
+        numbRoles = input.numbRoles();
+
+        memberHasRole = new boolean[numbMembers][numbRoles];
+        preferredTeams = new int[numbMembers][];
+        for (int m = 0; m < numbMembers; m++) {
+            for (int r : input.getMemberRoles(m)) memberHasRole[m][r] = true;
+            preferredTeams[m] = input.getMemberPreferences(m);
+        }
+
+        capacity = new int[numbTeams * (numbRoles + 1)];
+        occupancy = new int[capacity.length];
+        int wildCapacity = 0;
+        for (int j = 0; j < input.numbAugmentedColumns(); j++) {
+            int t = input.getJToTeam(j);
+            if (t < 0) wildCapacity++;
+            else capacity[cell(t, input.getJToRole(j))]++;
+        }
+        // every seat starts empty and is taken off as the members enter
+        required = new int[capacity.length];
+        filled = new int[capacity.length];
+        unmetRoleRequirements = 0;
+        teamMinimums = new int[numbTeams];
+        teamShortfall = 0;
+        for (int t = 0; t < numbTeams; t++) {
+            for (int r = 0; r < numbRoles; r++) {
+                required[cell(t, r)] = input.getTeamRoleRequiremenet(t, r);
+                unmetRoleRequirements += required[cell(t, r)];
+            }
+            teamMinimums[t] = input.getTeamMinimumMembers(t);
+            teamShortfall += teamMinimums[t];
+        }
+        teamMembers = new ArrayList<>(numbTeams);
+        for (int t = 0; t < numbTeams; t++) teamMembers.add(new ArrayList<>());
+        teamPositions = new int[numbMembers];
+        overflow = 0;
+        for (int m = 0; m < numbMembers; m++) {
+            if (assignmentScore.getTeam(m) < 0) continue;
+            enter(m, assignmentScore.getTeam(m), assignmentScore.getRole(m));
+        }
+        allowedOverflow = Math.max(wildCapacity, overflow);
+        committedUnmetRoleRequirements = unmetRoleRequirements;
+        committedTeamShortfall = teamShortfall;
+
+        initialScore = assignmentScore.getScore();
+        bestTeam = assignmentScore.getTeams();
+        bestRole = assignmentScore.getRoles();
+        bestScore = initialScore;
+        bestUnmetRoleRequirements = unmetRoleRequirements;
+        undoLog = new int[64];
+        undoSize = 0;
+        attempts = 0;
+        acceptedMoves = 0;
+    }
+
+    protected int cell(int team, int role) {
+        return team * (numbRoles + 1) + role + 1;
+    }
+
+    // Same rule as TeamSorterSolver.isColumnEligible: the member has to have the role and, unless
+    // the hard objective is used, prefer the team
+    protected boolean canTake(int m, int t, int r) {
+        return t >= 0 && (useHardPreferenceObjectiveFunction || input.getPreferenceRank(m, t) >= 0)
+                && (r < 0 || memberHasRole[m][r]);
+    }
+
+    protected int randomPreferredTeam(int m) {
+        int[] teams = preferredTeams[m];
+        return teams.length > 0 ? teams[random.nextInt(teams.length)] : -1;
+    }
+
+    protected void enter(int m, int t, int r) {
+        int c = cell(t, r);
+        occupancy[c]++;
+        if (occupancy[c] > capacity[c]) overflow++;
+        if (r >= 0 && memberHasRole[m][r]) {
+            if (filled[c] < required[c]) unmetRoleRequirements--;
+            filled[c]++;
+        }
+        List<Integer> members = teamMembers.get(t);
+        if (members.size() < teamMinimums[t]) teamShortfall--;
+        teamPositions[m] = members.size();
+        members.add(m);
+    }
+
+    protected void leave(int m) {
+        int t = assignmentScore.getTeam(m);
+        int c = cell(t, assignmentScore.getRole(m));
+        if (occupancy[c] > capacity[c]) overflow--;
+        occupancy[c]--;
+        int r = assignmentScore.getRole(m);
+        if (r >= 0 && memberHasRole[m][r]) {
+            filled[c]--;
+            if (filled[c] < required[c]) unmetRoleRequirements++;
+        }
+        List<Integer> members = teamMembers.get(t);
+        int last = members.remove(members.size() - 1);
+        if (last != m) {
+            members.set(teamPositions[m], last);
+            teamPositions[last] = teamPositions[m];
+        }
+        if (members.size() < teamMinimums[t]) teamShortfall++;
+    }
+
+    // Moves the member and logs where it came from, so the move can be undone
+    protected void relocate(int m, int t, int r) {
+        if (undoSize + 3 > undoLog.length) undoLog = Arrays.copyOf(undoLog, undoLog.length * 2);
+        undoLog[undoSize++] = m;
+        undoLog[undoSize++] = assignmentScore.getTeam(m);
+        undoLog[undoSize++] = assignmentScore.getRole(m);
+        leave(m);
+        assignmentScore.move(m, t, r);
+        enter(m, t, r);
+    }
+
+    // Keeps the relocations since the last commit if they filled a requirement seat or improved
+    // the score within the seat limits, or passed the annealing test, and undoes them otherwise.
+    // Seat limits: no more overflow than allowed, and no requirement seat or team minimum left
+    // emptier than before.
+    protected boolean commit(double previousScore) {
+        double delta = assignmentScore.getScore() - previousScore;
+        boolean accept = unmetRoleRequirements < committedUnmetRoleRequirements || delta > TOLERANCE
+                || (temperature > 0 && random.nextDouble() < Math.exp(delta / temperature));
+        if (!accept || overflow > allowedOverflow || unmetRoleRequirements > committedUnmetRoleRequirements
+                || teamShortfall > committedTeamShortfall) {
+            rollback();
+            return false;
+        }
+        undoSize = 0;
+        committedUnmetRoleRequirements = unmetRoleRequirements;
+        committedTeamShortfall = teamShortfall;
+        return true;
+    }
+
+    protected void rollback() {
+        while (undoSize > 0) {
+            int r = undoLog[--undoSize];
+            int t = undoLog[--undoSize];
+            int m = undoLog[--undoSize];
+            leave(m);
+            assignmentScore.move(m, t, r);
+            enter(m, t, r);
+        }
+    }
+
+    // Exchanges the seats of the member and someone on one of the member's preferred teams
+    protected boolean trySwap(int a) {
+        int t = randomPreferredTeam(a);
+        int teamA = assignmentScore.getTeam(a);
+        if (t < 0 || t == teamA || teamMembers.get(t).isEmpty()) return false;
+        List<Integer> members = teamMembers.get(t);
+        int b = members.get(random.nextInt(members.size()));
+        int roleA = assignmentScore.getRole(a);
+        int roleB = assignmentScore.getRole(b);
+        if (!canTake(a, t, roleB) || !canTake(b, teamA, roleA)) return false;
+        double previousScore = assignmentScore.getScore();
+        relocate(a, t, roleB);
+        relocate(b, teamA, roleA);
+        return commit(previousScore);
+    }
+
+    // Moves every member of the group onto the team: into a free seat, onto a wild column while
+    // there are some left, or by exchanging seats with someone already on the team
+    protected boolean tryGroupMove(int g, int t) {
+        if (t < 0) return false;
+        double previousScore = assignmentScore.getScore();
+        for (int m : assignmentScore.getGroupMembers(g)) {
+            if (assignmentScore.getTeam(m) == t) continue;
+            if (!placeOnTeam(m, t) && !exchangeOntoTeam(m, t, g)) {
+                rollback();
+                return false;
+            }
+        }
+        return commit(previousScore);
+    }
+
+    protected boolean placeOnTeam(int m, int t) {
+        if (!canTake(m, t, -1)) return false;
+        // a role seat with room first, then an any-role seat with room
+        for (int r = numbRoles - 1; r >= -1; r--) {
+            if (!canTake(m, t, r)) continue;
+            int c = cell(t, r);
+            if (occupancy[c] < capacity[c]) {
+                relocate(m, t, r);
+                return true;
+            }
+        }
+        // otherwise a wild column, if leaving frees one or there are some left
+        int from = cell(assignmentScore.getTeam(m), assignmentScore.getRole(m));
+        int to = cell(t, -1);
+        int newOverflow = overflow - (occupancy[from] > capacity[from] ? 1 : 0) + (occupancy[to] >= capacity[to] ? 1 : 0);
+        if (newOverflow > allowedOverflow) return false;
+        relocate(m, t, -1);
+        return true;
+    }
+
+    protected boolean exchangeOntoTeam(int m, int t, int g) {
+        List<Integer> members = teamMembers.get(t);
+        if (members.isEmpty()) return false;
+        int teamM = assignmentScore.getTeam(m);
+        int roleM = assignmentScore.getRole(m);
+        for (int i = 0; i < swapCandidates; i++) {
+            int b = members.get(random.nextInt(members.size()));
+            if (assignmentScore.getGroup(b) == g) continue;
+            int roleB = assignmentScore.getRole(b);
+            if (!canTake(m, t, roleB) || !canTake(b, teamM, roleM)) continue;
+            relocate(m, t, roleB);
+            relocate(b, teamM, roleM);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds a result with the given final placement on top of the starting result's solution.
+     * @param teams final team of each member, -1 to leave the member's assignment unset
+     * @param roles final role of each member, -1 for any role
+     */
+    public TeamSorterResult createResult(int[] teams, int[] roles, TeamSorterStatus status) {
+        MemberAssignment[] assignments = result.getAssignments();
+        MemberAssignment[] improved = new MemberAssignment[assignments.length];
+        for (int m = 0; m < assignments.length; m++) {
+            improved[m] = new MemberAssignment(input, m, assignments[m].getValues(), false);
+            if (teams[m] >= 0) improved[m].setFinalTeamAssignment(teams[m], roles[m], input);
+        }
+        TeamSorterResult improvedResult = result.getVars() != null
+                ? new TeamSorterResult(result.getSolver(), result.getObjective(), result.getVars(), input, status, preferenceMultipliers, improved)
+                : new TeamSorterResult(result.getSolver(), result.getObjective(), result.getSolution(), input, status, preferenceMultipliers, improved);
+        improvedResult.setSolveStatistics(result.getSolverObjectiveValue(), result.getWallTime(), result.getIterations());
+        return improvedResult;
+    }
+
+}
@@ -1,8 +1,9 @@
 package pyerter.squirrel.tpp.friendship;
 
-import pyerter.squirrel.tpp.core.Member;
 import pyerter.squirrel.tpp.core.TeamSortingInput;
 
+// Average preference value the friendship's members would get on the team, for ordering the
+// candidate teams of a friendship before anyone is placed
 public class FriendshipObjectiveValues {
 
     protected int team;
@@ -13,8 +14,8 @@ public class FriendshipObjectiveValues {
         team = t;
         this.friendship = friendship;
         int teamObjectiveValue = 0;
-        for (Member m: friendship.getMembers()) {
-            int pref = m.getPreference(input.getTeams()[t]); // 0 is best, input.numbPreferences() - 1 is worst
+        for (int m: friendship.getMemberIndexes()) {
+            int pref = input.getPreferenceRank(m, t); // 0 is best, input.numbPreferences() - 1 is worst
             if (pref >= 0) teamObjectiveValue += preferenceMultipliers[pref];
         }
         objectiveValue = (double)teamObjectiveValue / friendship.size();
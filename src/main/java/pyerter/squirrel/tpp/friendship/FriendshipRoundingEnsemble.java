@@ -0,0 +1,128 @@
+package pyerter.squirrel.tpp.friendship;
+
+import com.google.ortools.linearsolver.MPObjective;
+import com.google.ortools.linearsolver.MPSolver;
+import pyerter.squirrel.tpp.core.MemberAssignment;
+import pyerter.squirrel.tpp.core.TeamSorterResult;
+import pyerter.squirrel.tpp.core.TeamSorterStatus;
+import pyerter.squirrel.tpp.core.TeamSortingInput;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Rounds the same fractional solution several times on a fork-join pool and keeps the rounding
+ * that leaves the fewest team-role requirement seats empty, and of those the one with the highest
+ * preference plus friendship objective. The first rounding is the deterministic one, the others
+ * shuffle tie-breaks with their own seed (see TeamSorterFriendshipRoundingConstrained), so the
+ * ensemble is never worse than a single pass and needs no extra LP solves.
+ */
+public class FriendshipRoundingEnsemble {
+
+    protected MPSolver solver;
+    protected MPObjective objective;
+    protected double[][] solution;
+    protected TeamSortingInput input;
+    protected final TeamSorterStatus status;
+    protected int[] preferenceMultipliers;
+    protected int numbRoundings = 8;
+    protected int numbWorkers = Runtime.getRuntime().availableProcessors();
+    protected long seed = 0;
+    protected int bestRounding = -1;
+    protected double bestScore = Double.NaN;
+    protected int bestUnmetRoleRequirements = -1;
+
+    public FriendshipRoundingEnsemble(MPSolver solver, MPObjective objective, double[][] solution,
+                                      TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers) {
+        this.solver = solver;
+        this.objective = objective;
+        this.solution = solution;
+        this.input = input;
+        this.status = status;
+        this.preferenceMultipliers = preferenceMultipliers;
+    }
+
+    public int getNumbRoundings() {
+        return numbRoundings;
+    }
+
+    public void setNumbRoundings(int numbRoundings) {
+        this.numbRoundings = Math.max(1, numbRoundings);
+    }
+
+    public int getNumbWorkers() {
+        return numbWorkers;
+    }
+
+    public void setNumbWorkers(int numbWorkers) {
+        this.numbWorkers = numbWorkers;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    // Rounding i > 0 uses seed + i
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // Index of the rounding that was kept, 0 being the deterministic one
+    public int getBestRounding() {
+        return bestRounding;
+    }
+
+    public double getBestScore() {
+        return bestScore;
+    }
+
+    // Requirement seats the kept rounding leaves empty, see TeamSorterResult.countUnmetRoleRequirements()
+    public int getBestUnmetRoleRequirements() {
+        return bestUnmetRoleRequirements;
+    }
+
+    public MemberAssignment[] calculateAssignments() {
+        // friendships initialize lazily, so do it before the roundings share them
+        for (Friendship friendship : input.getFriendships()) friendship.initialize(input);
+
+        MemberAssignment[][] roundings = new MemberAssignment[numbRoundings][];
+        double[] scores = new double[numbRoundings];
+        int[] unmet = new int[numbRoundings];
+        ForkJoinPool pool = new ForkJoinPool(numbWorkers);
+        try {
+            pool.submit(() -> IntStream.range(0, numbRoundings).parallel().forEach(i -> {
+                roundings[i] = round(i);
+                TeamSorterResult result = createResult(roundings[i]);
+                unmet[i] = result.countUnmetRoleRequirements();
+                scores[i] = result.getObjectiveValue() + result.getFinalFriendshipObjectiveValue();
+            })).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        // fewest empty requirement seats first, then the score, strict so ties keep the lowest rounding
+        bestRounding = 0;
+        for (int i = 1; i < numbRoundings; i++) {
+            if (unmet[i] < unmet[bestRounding] || (unmet[i] == unmet[bestRounding] && scores[i] > scores[bestRounding])) bestRounding = i;
+        }
+        bestScore = scores[bestRounding];
+        bestUnmetRoleRequirements = unmet[bestRounding];
+        return roundings[bestRounding];
+    }
+
+    protected MemberAssignment[] round(int i) {
+        Random random = i == 0 ? null : new Random(seed + i);
+        TeamSorterFriendshipRoundingConstrained rounding = new TeamSorterFriendshipRoundingConstrained(solver, objective,
+                solution, input, status, preferenceMultipliers, random);
+        return rounding.calculateAssignments();
+    }
+
+    protected TeamSorterResult createResult(MemberAssignment[] assignments) {
+        return new TeamSorterResult(solver, objective, solution, input, status, preferenceMultipliers, assignments);
+    }
+
+}
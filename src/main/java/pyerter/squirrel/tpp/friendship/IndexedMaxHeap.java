@@ -0,0 +1,123 @@
+package pyerter.squirrel.tpp.friendship;
+
+import java.util.Arrays;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Max-heap over the keys 0 to capacity - 1, each with a value that can be changed or removed in
+ * O(log n) without rebuilding the heap. Ties go to the lower key, so numbering entries in scan
+ * order picks the same entry a scan keeping the first strict maximum would. A tie order can be
+ * given instead to break ties some other way.
+ */
+public class IndexedMaxHeap {
+
+    protected int[] heap;
+    protected int[] positions;
+    protected double[] values;
+    protected int[] tieOrder;
+    protected int size = 0;
+
+    public IndexedMaxHeap(int capacity) {
+        this(capacity, null);
+    }
+
+    // Ties go to the key with the lower tieOrder[key], or the lower key when tieOrder is null
+    public IndexedMaxHeap(int capacity, int[] tieOrder) {
+        heap = new int[capacity];
+        positions = new int[capacity];
+        values = new double[capacity];
+        this.tieOrder = tieOrder;
+        Arrays.fill(positions, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int key) {
+        return positions[key] >= 0;
+    }
+
+    public double getValue(int key) {
+        return values[key];
+    }
+
+    // Key with the highest value
+    public int peek() {
+        return heap[0];
+    }
+
+    public void add(int key, double value) {
+        if (contains(key)) {
+            update(key, value);
+            return;
+        }
+        values[key] = value;
+        heap[size] = key;
+        positions[key] = size;
+        siftUp(size++);
+    }
+
+    public void update(int key, double value) {
+        int position = positions[key];
+        if (position < 0) return;
+        double previous = values[key];
+        values[key] = value;
+        if (value > previous) siftUp(position);
+        else if (value < previous) siftDown(position);
+    }
+
+    public void remove(int key) {
+        int position = positions[key];
+        if (position < 0) return;
+        int last = --size;
+        if (position != last) {
+            int moved = heap[last];
+            swap(position, last);
+            siftUp(position);
+            siftDown(positions[moved]);
+        }
+        positions[key] = -1;
+    }
+
+    protected boolean higher(int key1, int key2) {
+        if (values[key1] != values[key2]) return values[key1] > values[key2];
+        return tieOrder == null ? key1 < key2 : tieOrder[key1] < tieOrder[key2];
+    }
+
+    protected void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!higher(heap[position], heap[parent])) return;
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    protected void siftDown(int position) {
+        while (true) {
+            int left = 2 * position + 1;
+            if (left >= size) return;
+            int child = left + 1 < size && higher(heap[left + 1], heap[left]) ? left + 1 : left;
+            if (!higher(heap[child], heap[position])) return;
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    protected void swap(int i, int j) {
+        int keyI = heap[i];
+        int keyJ = heap[j];
+        heap[i] = keyJ;
+        heap[j] = keyI;
+        positions[keyJ] = i;
+        positions[keyI] = j;
+    }
+
+}
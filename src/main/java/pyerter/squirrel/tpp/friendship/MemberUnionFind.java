@@ -0,0 +1,55 @@
+package pyerter.squirrel.tpp.friendship;
+
+/**
+ * Author: Porter Squires
+ * License: MIT License
+ *
+ * Disjoint sets over member rows, used to merge friendships that share a member. Union by size
+ * with path halving, so merging every friendship declaration is near-linear in their total size.
+ */
+public class MemberUnionFind {
+
+    protected int[] parent;
+    protected int[] size;
+
+    public MemberUnionFind(int numbMembers) {
+        parent = new int[numbMembers];
+        size = new int[numbMembers];
+        for (int i = 0; i < numbMembers; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+    }
+
+    public int find(int member) {
+        while (parent[member] != member) {
+            parent[member] = parent[parent[member]];
+            member = parent[member];
+        }
+        return member;
+    }
+
+    // Returns the root of the merged set
+    public int union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) return rootA;
+        if (size[rootA] < size[rootB]) {
+            int temp = rootA;
+            rootA = rootB;
+            rootB = temp;
+        }
+        parent[rootB] = rootA;
+        size[rootA] += size[rootB];
+        return rootA;
+    }
+
+    public boolean connected(int a, int b) {
+        return find(a) == find(b);
+    }
+
+    public int getSize(int member) {
+        return size[find(member)];
+    }
+
+}
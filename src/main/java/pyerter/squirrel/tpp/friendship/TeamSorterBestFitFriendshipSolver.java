@@ -1,6 +1,5 @@
 package pyerter.squirrel.tpp.friendship;
 
-import pyerter.squirrel.tpp.core.Member;
 import pyerter.squirrel.tpp.core.TeamSortingInput;
 
 import java.util.*;
@@ -50,23 +49,10 @@ public class TeamSorterBestFitFriendshipSolver {
 
         int[][] memberPreferenceScores = new int[input.numbMembers()][input.numbTeams()];
         for (int i = 0; i < input.numbMembers(); i++) {
-            Member m = input.getMember(i);
-            String[] preferences = m.getPreferredTeams();
-            int[] prefNumbers = new int[preferences.length];
-            for (int j = 0; j < prefNumbers.length; j++) {
-                prefNumbers[j] = input.getTeamMap().get(preferences[j]);
-            }
             for (int j = 0; j < input.numbTeams(); j++) {
-                int teamCol = input.getJToTeam(j);
-                if (teamCol < 0) continue;
-                for (int p = 0; p < preferences.length; p++) {
-                    int currentPref = prefNumbers[p];
-                    if (currentPref == teamCol) {
-                        if (p < preferenceMultipliers.length) {
-                            memberPreferenceScores[i][j] = preferenceMultipliers[p];
-                        }
-                        break;
-                    }
+                int p = input.getColumnPreferenceRank(i, j);
+                if (p >= 0 && p < preferenceMultipliers.length) {
+                    memberPreferenceScores[i][j] = preferenceMultipliers[p];
                 }
             }
         }
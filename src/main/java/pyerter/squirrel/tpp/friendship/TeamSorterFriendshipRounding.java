@@ -5,17 +5,21 @@ import com.google.ortools.linearsolver.MPSolver;
 import com.google.ortools.linearsolver.MPVariable;
 import pyerter.squirrel.tpp.core.Member;
 import pyerter.squirrel.tpp.core.MemberAssignment;
+import pyerter.squirrel.tpp.core.TeamSorterSolver;
+import pyerter.squirrel.tpp.core.TeamSorterStatus;
 import pyerter.squirrel.tpp.core.TeamSortingInput;
 
 import java.util.*;
 
+// Unconstrained version of TeamSorterFriendshipRoundingConstrained, ranking friendships by the
+// preference value they would get on each team before any member is placed
 public class TeamSorterFriendshipRounding {
 
     protected MPSolver solver;
     protected MPObjective objective;
     protected MPVariable[][] vars;
     protected TeamSortingInput input;
-    protected final MPSolver.ResultStatus status;
+    protected final TeamSorterStatus status;
     protected int[] preferenceMultipliers;
     protected MemberAssignment[] assignments;
     protected Map<String, MemberAssignment> assignmentMap;
@@ -27,16 +31,22 @@ public class TeamSorterFriendshipRounding {
     protected FriendshipObjectiveValues[][] friendshipObjectiveValues;
 
     public TeamSorterFriendshipRounding(MPSolver solver, MPObjective objective, MPVariable[][] vars,
-                                        TeamSortingInput input, final MPSolver.ResultStatus status, int[] preferenceMultipliers) {
-        this.solver = solver;
+                                        TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers) {
+        this(solver, objective, TeamSorterSolver.getSolutionValues(vars), input, status, preferenceMultipliers);
         this.vars = vars;
+    }
+
+    public TeamSorterFriendshipRounding(MPSolver solver, MPObjective objective, double[][] solution,
+                                        TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers) {
+        this.solver = solver;
+        this.objective = objective;
         this.input = input;
         this.status = status;
         this.preferenceMultipliers = preferenceMultipliers;
         assignments = new MemberAssignment[input.numbRows()];
         assignmentMap = new HashMap<>();
         for (int i = 0; i < assignments.length; i++) {
-            assignments[i] = new MemberAssignment(input, i, vars[i], false);
+            assignments[i] = new MemberAssignment(input, i, solution[i], false);
             assignmentMap.put(input.getMember(i).getName(), assignments[i]);
         }
         friendshipMap = new HashMap<>();
@@ -148,7 +158,7 @@ public class TeamSorterFriendshipRounding {
     public String toPrintFinalPreferences() {
         int[] preferences = new int[input.getNumbPreferences() + 1];
         for (int m = 0; m < input.numbMembers(); m++) {
-            int pref = assignments[m].getMember().getPreference(assignments[m].getFinalTeamAssignmentName());
+            int pref = assignments[m].getFinalPreference();
             preferences[pref+1] += 1;
         }
         String out = "Members with preferences:\n";
@@ -5,17 +5,24 @@ import com.google.ortools.linearsolver.MPSolver;
 import com.google.ortools.linearsolver.MPVariable;
 import pyerter.squirrel.tpp.core.Member;
 import pyerter.squirrel.tpp.core.MemberAssignment;
+import pyerter.squirrel.tpp.core.TeamSorterSolver;
+import pyerter.squirrel.tpp.core.TeamSorterStatus;
 import pyerter.squirrel.tpp.core.TeamSortingInput;
 
 import java.util.*;
+import java.util.random.RandomGenerator;
 
+// Rounds a fractional solution by sending friendships to the teams holding most of their LP
+// mass. The concentrations here are sums of fractional column values that change as the rounding
+// swaps values around, so they are kept apart from AssignmentScore, which only scores whole
+// placements. The finished assignments are scored by the result's AssignmentScore.
 public class TeamSorterFriendshipRoundingConstrained {
 
     protected MPSolver solver;
     protected MPObjective objective;
     protected MPVariable[][] vars;
     protected TeamSortingInput input;
-    protected final MPSolver.ResultStatus status;
+    protected final TeamSorterStatus status;
     protected int[] preferenceMultipliers;
     protected MemberAssignment[] assignments;
     protected Map<String, MemberAssignment> assignmentMap;
@@ -29,31 +36,60 @@ public class TeamSorterFriendshipRoundingConstrained {
     protected double[][] solution;
     protected boolean[][] finalizedValues;
     protected FriendshipConcentrationValues highestConcentrationValue = null;
+    // (friendship, team) entries numbered by friendship and then team, friendship i owns
+    // entries [entryOffsets[i], entryOffsets[i + 1])
+    protected int[] entryOffsets;
+    protected int[] entryTeams;
+    protected FriendshipConcentrationValues[] entryConcentrations;
+    protected IndexedMaxHeap concentrationHeap;
+    protected int[] memberFriendshipIndex;
+    // members with a positive value in each column and columns with a positive value for each
+    // member, both kept in index order
+    protected List<TreeSet<Integer>> columnOccupants;
+    protected List<TreeSet<Integer>> memberColumns;
+    protected boolean[][] memberHasRole;
+    // order in which members are tried as swap victims, by member index unless randomized
+    protected int[] memberRanks;
+    protected RandomGenerator random;
 
     public TeamSorterFriendshipRoundingConstrained(MPSolver solver, MPObjective objective, MPVariable[][] vars,
-                                                   TeamSortingInput input, final MPSolver.ResultStatus status, int[] preferenceMultipliers) {
-        this.solver = solver;
+                                                   TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers) {
+        this(solver, objective, TeamSorterSolver.getSolutionValues(vars), input, status, preferenceMultipliers);
         this.vars = vars;
+    }
+
+    public TeamSorterFriendshipRoundingConstrained(MPSolver solver, MPObjective objective, double[][] solution,
+                                                   TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers) {
+        this(solver, objective, solution, input, status, preferenceMultipliers, null);
+    }
+
+    // With a random generator, ties between equal concentrations and the order swap victims are
+    // tried in are shuffled, so different generators give different roundings
+    public TeamSorterFriendshipRoundingConstrained(MPSolver solver, MPObjective objective, double[][] solution,
+                                                   TeamSortingInput input, final TeamSorterStatus status, int[] preferenceMultipliers,
+                                                   RandomGenerator random) {
+        this.solver = solver;
+        this.random = random;
+        this.objective = objective;
         this.input = input;
         this.status = status;
         this.preferenceMultipliers = preferenceMultipliers;
         assignments = new MemberAssignment[input.numbRows()];
         assignmentMap = new HashMap<>();
         for (int i = 0; i < assignments.length; i++) {
-            assignments[i] = new MemberAssignment(input, i, vars[i], false);
+            assignments[i] = new MemberAssignment(input, i, solution[i], false);
             assignmentMap.put(input.getMember(i).getName(), assignments[i]);
         }
 
-        solution = new double[vars.length][];
-        finalizedValues = new boolean[vars.length][];
-        for (int i = 0; i < vars.length; i++) {
-            solution[i] = new double[vars[i].length];
-            finalizedValues[i] = new boolean[vars[i].length];
+        // copied, since rounding swaps values in place
+        this.solution = new double[solution.length][];
+        finalizedValues = new boolean[solution.length][];
+        for (int i = 0; i < solution.length; i++) {
+            this.solution[i] = Arrays.copyOf(solution[i], solution[i].length);
+            finalizedValues[i] = new boolean[solution[i].length];
             Arrays.fill(finalizedValues[i], false);
-            for (int j = 0; j < vars[i].length; j++) {
-                solution[i][j] = vars[i][j].solutionValue();
-            }
         }
+        createSolutionIndexes();
 
         friendshipMap = new HashMap<>();
         friendCount = 0;
@@ -61,7 +97,7 @@ public class TeamSorterFriendshipRoundingConstrained {
         for (int i = 0; i < input.numbMembers(); i++) {
             Optional<Friendship> friendship = input.tryGetFriendship(input.getMember(i).getName());
             if (friendship.isPresent()) {
-                if (!friendshipMap.containsValue(friendship.get())) {
+                if (!friendshipIndexMap.containsKey(friendship.get())) {
                     friendshipIndexMap.put(friendship.get(), friendCount);
                     friendCount++;
                 }
@@ -81,6 +117,13 @@ public class TeamSorterFriendshipRoundingConstrained {
         for (Friendship f: friendshipMap.values()) {
             friendships[friendshipIndexMap.get(f)] = f;
         }
+        memberFriendshipIndex = new int[input.numbMembers()];
+        for (int i = 0; i < input.numbMembers(); i++) {
+            memberFriendshipIndex[i] = friendshipIndexMap.get(friendshipMap.get(input.getMember(i).getName()));
+        }
+        entryOffsets = new int[friendCount + 1];
+        List<Integer> teamsOfEntries = new ArrayList<>();
+        List<FriendshipConcentrationValues> concentrationsOfEntries = new ArrayList<>();
         for (int i = 0; i < friendCount; i++) {
             boolean[] possibleTeams = new boolean[input.numbTeams()];
             for (int f = 0; f < friendships[i].size(); f++) {
@@ -112,14 +155,97 @@ public class TeamSorterFriendshipRoundingConstrained {
                         highestConcentrationValue = friendshipConcentration;
                     totalPossibleTeams++;
                     currentFriendshipChecker[i][t] = true;
+                    teamsOfEntries.add(t);
+                    concentrationsOfEntries.add(friendshipConcentration);
                 }
             }
+            entryOffsets[i + 1] = teamsOfEntries.size();
             //String[] friendshipNameArr = Arrays.stream(friendshipObjectiveValues[i]).map((f) -> String.format("Friendship %s to Team %d (%d)", f.getFriendship().getFriendshipName(), f.getTeam(), (int)f.getObjectiveValue())).toArray(String[]::new);
             //System.out.printf("Friendship array: %s%n", Arrays.toString(friendshipNameArr));
             //System.out.flush();
             Arrays.sort(friendshipObjectiveValues[i], (f1, f2) -> (int)((-f1.getObjectiveValue() + f2.getObjectiveValue())*10000));
             Arrays.sort(friendshipConcentrationValues[i], (f1, f2) -> (int)((-f1.getObjectiveValue() + f2.getObjectiveValue())*10000));
         }
+
+        entryTeams = teamsOfEntries.stream().mapToInt(Integer::intValue).toArray();
+        entryConcentrations = concentrationsOfEntries.toArray(new FriendshipConcentrationValues[0]);
+        concentrationHeap = new IndexedMaxHeap(entryTeams.length, random != null ? shuffledOrder(entryTeams.length) : null);
+        for (int e = 0; e < entryTeams.length; e++) {
+            concentrationHeap.add(e, entryConcentrations[e].getObjectiveValue());
+        }
+    }
+
+    // A random permutation of 0 to size - 1
+    protected int[] shuffledOrder(int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+        }
+        return order;
+    }
+
+    protected void createSolutionIndexes() {
+        int numbColumns = input.numbAugmentedColumns();
+        memberRanks = random != null ? shuffledOrder(solution.length) : null;
+        Comparator<Integer> byRank = memberRanks != null ? Comparator.comparingInt(m -> memberRanks[m]) : Comparator.naturalOrder();
+        columnOccupants = new ArrayList<>(numbColumns);
+        for (int j = 0; j < numbColumns; j++) columnOccupants.add(new TreeSet<>(byRank));
+        memberColumns = new ArrayList<>(solution.length);
+        for (int m = 0; m < solution.length; m++) {
+            TreeSet<Integer> columns = new TreeSet<>();
+            for (int j = 0; j < solution[m].length; j++) {
+                if (solution[m][j] > 0) {
+                    columns.add(j);
+                    columnOccupants.get(j).add(m);
+                }
+            }
+            memberColumns.add(columns);
+        }
+        memberHasRole = new boolean[solution.length][input.numbRoles()];
+        for (int m = 0; m < solution.length; m++) {
+            for (int r : input.getMemberRoles(m)) memberHasRole[m][r] = true;
+        }
+    }
+
+    // Writes a solution value and keeps the occupant indexes in step with it
+    protected void setSolutionValue(int member, int col, double value) {
+        solution[member][col] = value;
+        if (value > 0) {
+            memberColumns.get(member).add(col);
+            columnOccupants.get(col).add(member);
+        } else {
+            memberColumns.get(member).remove(col);
+            columnOccupants.get(col).remove(member);
+        }
+    }
+
+    protected int getMemberRank(int member) {
+        return memberRanks != null ? memberRanks[member] : member;
+    }
+
+    // Entry of the friendship and team, -1 if the friendship was never assigned to the team
+    protected int getEntry(int fIndex, int team) {
+        int e = Arrays.binarySearch(entryTeams, entryOffsets[fIndex], entryOffsets[fIndex + 1], team);
+        return e >= 0 ? e : -1;
+    }
+
+    // Recomputes the concentration of one friendship on one team after a swap, and moves it in
+    // the heap if the team hasn't been scanned for that friendship yet
+    protected void updateConcentration(int fIndex, int team) {
+        int e = getEntry(fIndex, team);
+        if (e < 0) return;
+        FriendshipConcentrationValues friendshipConcentration = new FriendshipConcentrationValues(friendships[fIndex], team, input, solution);
+        entryConcentrations[e] = friendshipConcentration;
+        FriendshipConcentrationValues[] values = friendshipConcentrationValues[fIndex];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].getTeam() == team) values[i] = friendshipConcentration;
+        }
+        Arrays.sort(values, (f1, f2) -> (int)((-f1.getObjectiveValue() + f2.getObjectiveValue())*10000));
+        if (concentrationHeap.contains(e)) concentrationHeap.update(e, friendshipConcentration.getObjectiveValue());
     }
 
     //
@@ -172,8 +298,8 @@ public class TeamSorterFriendshipRoundingConstrained {
                 if (!finalizedValues[m][c]) { // if is not yet finalized, can check
                     if (canSwap(withMember, m, fromColumn, c)) { // swap em!
                         double temp = solution[withMember][fromColumn];
-                        solution[m][fromColumn] = solution[m][c];
-                        solution[withMember][c] = temp;
+                        setSolutionValue(m, fromColumn, solution[m][c]);
+                        setSolutionValue(withMember, c, temp);
                         finalizedValues[withMember][c] = true;
                     }
                 }
@@ -184,16 +310,11 @@ public class TeamSorterFriendshipRoundingConstrained {
 
     public boolean memberCanFillColumn(int member, int col) {
         // if member does not prefer the team, return false
-        if (input.getMember(member).getPreference(input.getTeams()[input.getJToTeam(col)]) < 0) {
+        if (input.getColumnPreferenceRank(member, col) < 0) {
             return false;
         }
-        int[] memberRoles = input.getMemberRoles(member);
         int roleNumb = input.getJToRole(col);
-        if (roleNumb < 0) return true;
-        for (int i = 0; i < memberRoles.length; i++) {
-            if (memberRoles[i] == roleNumb) return true;
-        }
-        return false;
+        return roleNumb < 0 || memberHasRole[member][roleNumb];
     }
 
     public boolean canSwap(int member1, int member2, int col1, int col2) {
@@ -201,19 +322,12 @@ public class TeamSorterFriendshipRoundingConstrained {
     }
 
     public int getColumnIndex(int member) {
-        for (int i = 0; i < solution[member].length; i++) {
-            if (solution[member][i] > 0) return i;
-        }
-        return -1;
+        TreeSet<Integer> columns = memberColumns.get(member);
+        return columns.isEmpty() ? -1 : columns.first();
     }
 
     public MemberAssignment[] calculateAssignments() {
 
-        PriorityQueue<FriendshipConcentrationValues> friendshipQueue = new PriorityQueue<>(friendCount, (f1, f2) -> (int)((-f1.getObjectiveValue() + f2.getObjectiveValue())*10000));
-        for (int f = 0; f < friendCount; f++) {
-            friendshipQueue.add(friendshipConcentrationValues[f][0]);
-        }
-
         /*
         int[] assignments = new int[input.numbMembers()];
 
@@ -242,10 +356,12 @@ public class TeamSorterFriendshipRoundingConstrained {
 
         boolean[][] scannedFriendshipTeams = new boolean[friendCount][input.numbTeams()];
 
-        //while (!friendshipQueue.isEmpty()) {
-        while (highestConcentrationValue != null) {
-            // verify that the concentration values didn't stop this current team from being next
-            FriendshipConcentrationValues fValues = highestConcentrationValue; // friendshipQueue.poll();
+        // a swap only changes the concentrations of the two friendships involved, so only those
+        // entries are moved in the heap instead of recomputing every friendship each step
+        while (!concentrationHeap.isEmpty()) {
+            int entry = concentrationHeap.peek();
+            FriendshipConcentrationValues fValues = entryConcentrations[entry];
+            highestConcentrationValue = fValues;
             Friendship friendship = fValues.getFriendship();
             int fIndex = friendshipIndexMap.get(fValues.getFriendship());
             int currentSearchTeam = fValues.getTeam();
@@ -257,24 +373,18 @@ public class TeamSorterFriendshipRoundingConstrained {
                 }
             }*/
             boolean[] searchTeams = new boolean[input.numbTeams()];
-            boolean[] searchableMembers = new boolean[input.numbMembers()];
 
             for (int i = 0; i < searchTeams.length; i++) {
                 searchTeams[i] = !(currentSearchTeam == i || scannedFriendshipTeams[fIndex][i]);
             }
 
-            Arrays.fill(searchableMembers, true);
-            for (int i = 0; i < friendship.size(); i++) {
-                searchableMembers[input.getMemberIndex(friendship.getMembers()[i])] = false;
-            }
-
             for (int fMember = 0; fMember < friendship.size(); fMember++) {
                 Member targetMember = friendship.getMembers()[fMember];
                 int memberRow = input.getMemberIndex(targetMember);
                 int memberColumn = getColumnIndex(memberRow);
                 int memberTeam = input.getJToTeam(memberColumn);
                 if (memberTeam < 0) {
-                    if (targetMember.getPreference(input.getTeams()[currentSearchTeam]) >= 0) {
+                    if (input.getPreferenceRank(memberRow, currentSearchTeam) >= 0) {
                         finalizedValues[memberRow][memberColumn] = true;
                         //assignments[memberRow] = currentSearchTeam;
                         this.assignments[memberRow].setFinalTeamAssignment(currentSearchTeam, input);
@@ -289,48 +399,55 @@ public class TeamSorterFriendshipRoundingConstrained {
                     //friendshipAssignmentSlots[fIndex][fMember] = currentSearchTeam;
                     continue;
                 }
-                boolean swapped = false;
-                for (int victimMember = 0; victimMember < searchableMembers.length; victimMember++) {
-                    if (!searchableMembers[victimMember]) continue;
-                    for (int victimCol : input.getColsOfTeam(currentSearchTeam)) {
-                        if (solution[victimMember][victimCol] > 0 && !finalizedValues[victimMember][victimCol] && canSwap(memberRow, victimMember, memberColumn, victimCol)) {
-                            double temp = solution[memberRow][memberColumn];
-                            solution[victimMember][memberColumn] = solution[victimMember][victimCol];
-                            solution[memberRow][victimCol] = temp;
-                            finalizedValues[memberRow][victimCol] = true;
-                            this.assignments[memberRow].setFinalTeamAssignmentColumn(victimCol, input);
-                            //assignments[memberRow] = currentSearchTeam;
-                            swapped = true;
-                            //friendshipAssignmentSlots[fIndex][fMember] = currentSearchTeam;
-                            Friendship victimFriendship = this.friendshipMap.get(input.getMember(victimMember).getName());
-                            if (victimFriendship != null) {
-                                int friendshipMemberIndex = -1;
-                                String[] victimFriends = victimFriendship.getFriends();
-                                for (int i = 0; i < victimFriends.length; i++) {
-                                    int currentIndex = input.getMemberIndex(victimFriends[i]);
-                                    if (currentIndex == victimMember) {
-                                        friendshipMemberIndex = i;
-                                        break;
-                                    }
-                                }
-                                if (friendshipMemberIndex >= 0) {
-                                    //System.out.printf("Debug - - - - fIndex %d, memberIndex %d%n", friendshipIndexMap.get(victimFriendship), friendshipMemberIndex);
-                                    //System.out.printf("Debug - - - - friendship: %s%n", Arrays.toString(victimFriendship.getFriends()));
-                                    //friendshipAssignmentSlots[friendshipIndexMap.get(victimFriendship)][friendshipMemberIndex] = memberTeam;
-                                } else {
-                                    System.out.printf("Err: could not alter member assignment of member %d (friend index %d) because not in friendship%n", victimMember, friendshipMemberIndex);
-                                }
-                            }
+                // first member in victim order outside the friendship on a column of the team,
+                // earlier columns first
+                int victimMember = -1;
+                int victimCol = -1;
+                for (int col : input.getColsOfTeam(currentSearchTeam)) {
+                    for (int occupant : columnOccupants.get(col)) {
+                        if (victimMember >= 0 && getMemberRank(occupant) >= getMemberRank(victimMember)) break;
+                        if (memberFriendshipIndex[occupant] != fIndex && !finalizedValues[occupant][col] && canSwap(memberRow, occupant, memberColumn, col)) {
+                            victimMember = occupant;
+                            victimCol = col;
                             break;
                         }
                     }
-                    if (swapped) break;
+                }
+                if (victimMember >= 0) {
+                    double temp = solution[memberRow][memberColumn];
+                    setSolutionValue(victimMember, memberColumn, solution[victimMember][victimCol]);
+                    setSolutionValue(memberRow, victimCol, temp);
+                    finalizedValues[memberRow][victimCol] = true;
+                    this.assignments[memberRow].setFinalTeamAssignmentColumn(victimCol, input);
+                    //assignments[memberRow] = currentSearchTeam;
+                    updateConcentration(memberFriendshipIndex[victimMember], memberTeam);
+                    updateConcentration(fIndex, currentSearchTeam);
+                    //friendshipAssignmentSlots[fIndex][fMember] = currentSearchTeam;
+                    Friendship victimFriendship = this.friendshipMap.get(input.getMember(victimMember).getName());
+                    if (victimFriendship != null) {
+                        int friendshipMemberIndex = -1;
+                        String[] victimFriends = victimFriendship.getFriends();
+                        for (int i = 0; i < victimFriends.length; i++) {
+                            int currentIndex = input.getMemberIndex(victimFriends[i]);
+                            if (currentIndex == victimMember) {
+                                friendshipMemberIndex = i;
+                                break;
+                            }
+                        }
+                        if (friendshipMemberIndex >= 0) {
+                            //System.out.printf("Debug - - - - fIndex %d, memberIndex %d%n", friendshipIndexMap.get(victimFriendship), friendshipMemberIndex);
+                            //System.out.printf("Debug - - - - friendship: %s%n", Arrays.toString(victimFriendship.getFriends()));
+                            //friendshipAssignmentSlots[friendshipIndexMap.get(victimFriendship)][friendshipMemberIndex] = memberTeam;
+                        } else {
+                            System.out.printf("Err: could not alter member assignment of member %d (friend index %d) because not in friendship%n", victimMember, friendshipMemberIndex);
+                        }
+                    }
                 }
             }
 
             scannedFriendshipTeams[fIndex][currentSearchTeam] = true;
             currentFriendshipChecker[fIndex][currentSearchTeam] = false;
-            computeFriendshipConcentrationValues();
+            concentrationHeap.remove(entry);
 
             /*int nextCheckTeam = getNextConcentrationCheckTeam(fIndex);
             if (nextCheckTeam >= 0) {
@@ -338,6 +455,7 @@ public class TeamSorterFriendshipRoundingConstrained {
             }*/
 
         }
+        highestConcentrationValue = null;
 
         return this.assignments;
     }
@@ -416,7 +534,7 @@ public class TeamSorterFriendshipRoundingConstrained {
     public String toPrintFinalPreferences() {
         int[] preferences = new int[input.getNumbPreferences() + 1];
         for (int m = 0; m < input.numbMembers(); m++) {
-            int pref = assignments[m].getMember().getPreference(assignments[m].getFinalTeamAssignmentName());
+            int pref = assignments[m].getFinalPreference();
             preferences[pref+1] += 1;
         }
         String out = "Members with preferences:\n";
@@ -24,6 +24,8 @@ public class TeamSorterFriendshipSolverOld extends TeamSorterSolver {
 
     public TeamSorterFriendshipSolverOld(TeamSortingInput input, boolean useIntegralVariables) {
         super(input, false);
+        // uses its own column layout, so it keeps every variable and its own role constraints
+        this.pruneVariables = false;
     }
 
     protected MPVariable[][] createVariables(MPSolver solver) {
@@ -54,29 +54,27 @@ public class TeamSortingFriendshipInput extends TeamSortingInput {
             oColsOfTeam[i] = new int[oOfTeams[i]];
             numbColsOfTeam[i] = 0; // now use as a counter to indicate next point in array while adding indexes
         }
-        this.augmentedTeamRoleIndex = new HashMap<>();
-        jToRole = new HashMap<>();
-        jToTeam = new HashMap<>();
+        initializeColumnLookups(Math.max(numbAugmentedColumns(), o + 1));
         int colIndex = 0;
         for (int i = 0; i < teamRoleRequirements.length; i++) {
             for (int j = 0; j < teamRoleRequirements[i].length; j++) {
                 int teamRoleIndex = i * numbRoles() + j;
-                augmentedTeamRoleIndex.put(teamRoleIndex, colIndex);
+                augmentedTeamRoleIndex[teamRoleIndex] = colIndex;
                 for (int numbRole = 0; numbRole < teamRoleRequirements[i][j]; numbRole++) {
                     colsOfRole[j][numbColsOfRole[j]] = colIndex;
                     colsOfTeam[i][numbColsOfTeam[i]] = colIndex;
                     oColsOfTeam[i][numbColsOfTeam[i]] = colIndex;
                     numbColsOfRole[j]++;
                     numbColsOfTeam[i]++;
-                    jToTeam.put(colIndex, i);
-                    jToRole.put(colIndex, j);
+                    jToTeam[colIndex] = i;
+                    jToRole[colIndex] = j;
                     colIndex++;
                 }
             }
             while (numbColsOfTeam[i] < colsOfTeam[i].length) {
                 colsOfTeam[i][numbColsOfTeam[i]] = colIndex;
                 numbColsOfTeam[i]++;
-                jToTeam.put(colIndex, i);
+                jToTeam[colIndex] = i;
             }
         }
         this.numbExplicitTeamRoles = colIndex;
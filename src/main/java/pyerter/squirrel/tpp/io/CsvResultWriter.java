@@ -19,22 +19,26 @@ public class CsvResultWriter {
     public static String subdirectoryName = "";
 
     public static String getFilePath(String baseName) {
-        File targetDirectory = new File(targetResultDirectoryName);
-        if (!targetDirectory.exists()) {
-            if (!targetDirectory.mkdirs()) return null;
-        }
+        return getFilePath(targetResultDirectoryName, subdirectoryName, baseName);
+    }
+
+    // Creates the directories if needed and reserves the next free experiment file in them
+    public static String getFilePath(String directoryName, String subdirectoryName, String baseName) {
+        File targetDirectory = new File(directoryName);
         if (subdirectoryName != null && !subdirectoryName.isBlank()) {
-            targetDirectory = new File(targetResultDirectoryName + File.separator + subdirectoryName);
-            if (!targetDirectory.exists()) {
-                if (!targetDirectory.mkdirs()) return null;
-            }
+            targetDirectory = new File(directoryName + File.separator + subdirectoryName);
         }
+        // mkdirs is also false when the directory exists, possibly just created by another writer
+        if (!targetDirectory.mkdirs() && !targetDirectory.isDirectory()) return null;
 
         return getNextExperimentName(targetDirectory, baseName);
     }
 
+    // Finds the highest numbered experiment and claims the next free name by creating the file.
+    // File creation is atomic, so concurrent writers never get the same name; a writer that
+    // loses the race moves on to the next index.
     public static String getNextExperimentName(File directory, String baseName) {
-        File[] files = directory.listFiles((d, name) -> name.matches(baseName + "\\d+\\.csv"));
+        File[] files = directory.listFiles((d, name) -> name.matches(Pattern.quote(baseName) + "\\d+\\.csv"));
 
         Pattern pattern = Pattern.compile(String.format("%s(\\d+)\\.csv", Pattern.quote(baseName)));
 
@@ -50,15 +54,30 @@ public class CsvResultWriter {
                     .orElse(0) + 1;
         }
 
-        return new File(directory, baseName + nextIndex + ".csv").getAbsolutePath();
+        try {
+            File file = new File(directory, baseName + nextIndex + ".csv");
+            while (!file.createNewFile()) {
+                nextIndex++;
+                file = new File(directory, baseName + nextIndex + ".csv");
+            }
+            return file.getAbsolutePath();
+        } catch (IOException e) {
+            System.out.println("IOException while reserving result file in " + directory + " > " + e.getMessage());
+            return null;
+        }
     }
 
     public static String writeResultToFile(TeamSorterResult result, String baseName) {
-        String filePath = getFilePath(baseName);
+        return writeResultToFile(result, targetResultDirectoryName, subdirectoryName, baseName);
+    }
+
+    // Does not read the static directory fields, so concurrent solves can write to their own directories
+    public static String writeResultToFile(TeamSorterResult result, String directoryName, String subdirectoryName, String baseName) {
+        String filePath = getFilePath(directoryName, subdirectoryName, baseName);
         boolean recoverWithNormalPrint = false;
         if (filePath == null) recoverWithNormalPrint = true;
         try (CSVWriter writer = new CSVWriter(new FileWriter(filePath))) {
-            writer.writeAll(result.getCsvPrint());
+            writer.writeAll(result.getSnapshot().getCsvPrint());
             return filePath;
         } catch (IOException e) {
             System.out.println("IOException while attempting to write result to csv: " + filePath + " > " + e.getMessage());